@@ -17,18 +17,45 @@
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
-import java.net.URLDecoder;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Description: master T
@@ -50,6 +77,8 @@ import java.util.regex.Pattern;
  * <p>
  * 这款WEB原生支持HTTP1.0协议并适应多数场景
  * 双线程模型(Acceptor&Reactor...线程未必越多越好) -> 后续考虑推出多线程版本(更高效利用多核处理器&IO资源) -> Reactor线程 & Worker线程的拆分...扩展(未来)
+ * 多Reactor模式: 通过{@link Container#REACTOR_COUNT}配置N个Reactor线程 -> XAcceptor将连接轮询分派 -> 每个连接始终由同一个Reactor线程处理
+ * Worker模式: 通过{@link Container#WORKER_THREADS}把XHandler交给Worker线程执行 -> IO始终由Reactor线程处理 响应交回所属Reactor写出
  * <p>
  * SSNIOServer 的完整功能由一个Source文件(此文件)展示 -> 尽可能地降低使用难度(只需要简单的引入该文件就能享受)
  * SSNIO没有使用任何第三方依赖并且集成了HTTP 1.0 的解析实现(往往协议的decode/encode需要使用者自己实现) -> 使用者不用担心任何依赖冲突问题xD
@@ -77,6 +106,7 @@ import java.util.regex.Pattern;
  * 如果你最快地了解如何使用该容器
  * 启动{@link SSNIOServer#main(java.lang.String[])} 后
  * 浏览器打开localhost:8080体验一下在HTTP协议下的效果吧
+ * 启动参数传入一个目录 -> 以静态资源服务器的方式启动(见{@link StaticFileXHandler})
  **/
 public class SSNIOServer {
 
@@ -90,29 +120,153 @@ public class SSNIOServer {
      **/
     public XHandler xHandler;
 
-    public void start() throws IOException {
+    /**
+     * start()后创建的Reactor组
+     */
+    private XReactor[] xReactors;
+
+    /**
+     * 执行XHandler的Worker线程池 -> 未开启Worker模式时为null
+     */
+    private ExecutorService workerPool;
 
-        XAcceptor xAcceptor = new XAcceptor();
-        xAcceptor.codeCFactory = codeCFactory;
+    public void start() throws IOException {
+        if (Container.WORKER_THREADS > 0 || Container.WORKER_VIRTUAL_THREADS) {
+            workerPool = newWorkerPool();
+        }
 
-        XReactor xReactor = new XReactor();
-        xReactor.handler = xHandler;
+        xReactors = new XReactor[Math.max(1, Math.min(Container.REACTOR_COUNT, XSocketRegistry.MAX_REACTORS))];
+        for (int i = 0; i < xReactors.length; i++) {
+            xReactors[i] = new XReactor(i);
+            xReactors[i].handler = xHandler;
+            xReactors[i].workerPool = workerPool;
+        }
 
-        new Thread(xAcceptor).start();
-        new Thread(xReactor).start();
+        if (Container.REUSE_PORT && supportsReusePort()) {
+            for (XReactor xReactor : xReactors) {
+                xReactor.listen(codeCFactory);
+            }
+        } else {
+            if (Container.REUSE_PORT) {
+                System.err.println("SO_REUSEPORT is not supported -> falling back to XAcceptor");
+            }
+            XAcceptor xAcceptor = new XAcceptor(xReactors);
+            xAcceptor.codeCFactory = codeCFactory;
+            new Thread(xAcceptor, "XAcceptor").start();
+        }
+        for (int i = 0; i < xReactors.length; i++) {
+            new Thread(xReactors[i], "XReactor-" + i).start();
+        }
+        if (Container.METRICS_ENABLED) {
+            XMetrics.registerMBeans(this);
+        }
         System.err.println("welcome to SSNIO server");
     }
 
+    /**
+     * 虚拟线程(Executors.newVirtualThreadPerTaskExecutor 通过反射调用 -> 源码仍可在JDK 8+下编译)
+     * 或WORKER_THREADS个平台线程(守护线程 每个线程绑定自己的XBufferPool)
+     * 虚拟线程没有绑定XBufferPool -> 其中创建的响应直接分配
+     */
+    private static ExecutorService newWorkerPool() {
+        if (Container.WORKER_VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("virtual threads are not supported -> falling back to platform worker threads");
+            }
+        }
+        int threads = Container.WORKER_THREADS > 0 ? Container.WORKER_THREADS : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(() -> {
+                /**Worker线程中创建的响应也从池中分配 -> Reactor线程写完后经归还队列回到该池**/
+                new XBufferPool().bind();
+                task.run();
+            }, "XWorker-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static boolean supportsReusePort() throws IOException {
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            return ssc.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    /**
+     * 打开 & 绑定监听端口(Container.PORT / ACCEPT_BACKLOG / SO_RCVBUF)
+     *
+     * @param reusePort 是否设置SO_REUSEPORT(多个ServerSocketChannel绑定同一端口)
+     */
+    static ServerSocketChannel openServerSocketChannel(boolean reusePort) throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                ssc.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (Container.SO_RCVBUF > 0) {
+                ssc.setOption(StandardSocketOptions.SO_RCVBUF, Container.SO_RCVBUF);
+            }
+            ssc.bind(new InetSocketAddress(Container.PORT), Container.ACCEPT_BACKLOG);
+            return ssc;
+        } catch (IOException e) {
+            ssc.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 接受的客户端连接 -> 非阻塞 & Container中的socket选项
+     */
+    static void configureAcceptedSocket(SocketChannel sc) throws IOException {
+        //服务端监听端口对应的ServerSocketChannel -> 阻塞式(XAcceptor) / 非阻塞式(REUSE_PORT)
+        //客户端连接对应的SocketChannel -> 非阻塞式
+        sc.configureBlocking(false);
+        if (Container.TCP_NO_DELAY) {
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (Container.SO_SNDBUF > 0) {
+            sc.setOption(StandardSocketOptions.SO_SNDBUF, Container.SO_SNDBUF);
+        }
+    }
+
+    /**
+     * @return 每个Reactor的指标(未开启指标 / start()之前 -> 空)
+     */
+    public List<XReactorMetrics> getReactorMetrics() {
+        List<XReactorMetrics> metrics = new ArrayList<>();
+        if (xReactors == null) return metrics;
+        for (XReactor xReactor : xReactors) {
+            if (xReactor.metrics != null) metrics.add(xReactor.metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return 每个Reactor的XBufferPool(可用于查看命中率 & 在途数)
+     */
+    public List<XBufferPool> getBufferPools() {
+        List<XBufferPool> pools = new ArrayList<>();
+        if (xReactors == null) return pools;
+        for (XReactor xReactor : xReactors) {
+            pools.add(xReactor.bufferPool);
+        }
+        return pools;
+    }
+
     public static void main(String[] args) throws IOException {
         SSNIOServer server = new SSNIOServer();
         server.codeCFactory =  new HttpCodeCFactory();
 
-        String httpResponse = "HTTP/1.1 200 OK\r\n" +
-                "Content-Length: 51\r\n" +
-                "Content-Type: text/html\r\n" +
-                "\r\n" +
-                "<html><body>Hello FROM SSNIOServer XD</body></html>";
-        byte[] httpResp_bytes = httpResponse.getBytes("UTF-8");
+        if (/**指定目录 -> 作为静态资源服务器启动**/args.length > 0) {
+            server.xHandler = new StaticFileXHandler(Paths.get(args[0]), new StaticResourceCache());
+            server.start();
+            return;
+        }
+
+        byte[] body = "<html><body>Hello FROM SSNIOServer XD</body></html>".getBytes(StandardCharsets.UTF_8);
 
         XHandler handler = requestInXBuffer ->{
 
@@ -120,10 +274,9 @@ public class SSNIOServer {
             System.err.println("HEADER:"+httpRequest.getHeaderStr());
             System.err.println("BODY:"+httpRequest.getBodyStr());
 
-            XBuffer xBuffer = new XBuffer();
-            xBuffer.xSocketId = requestInXBuffer.xSocketId;
-            xBuffer.cache(httpResp_bytes);
-            return xBuffer;
+            return HttpResponse.of(httpRequest, 200)
+                    .header(HttpResponse.CONTENT_TYPE, HttpResponse.TEXT_HTML)
+                    .body(body);
         };
 
         server.xHandler = handler;
@@ -141,14 +294,18 @@ public class SSNIOServer {
      * B 业务处理
      * C 强类型自定义业务数据包对象 ->弱类型XBuffer(响应)
      * 对应Reactor模式下的Worker角色
+     * 默认在Reactor线程中执行 -> 不要阻塞
+     * Worker模式(见{@link Container#WORKER_THREADS})下在Worker线程中执行 -> 同一连接的请求依次执行 不同连接的请求并发执行(实现需要线程安全)
      * <p>
      * 与Netty这样传统的NIO Server略微不同, 在自定协议的序列化/反序列化上没有对应的Encoder/Decoder类接口需要用户实现
      * 不过....这不代表不需要实现 你可以通过将请求向 "解码Handler" - > "业务Handler" - > "编码Handler"的顺序传递达到一样的效果
      */
     public interface XHandler {
         /**
-         * @param reqBuffer "正好"代表一个"完整"业务数据包的请求缓存
-         * @return 正好"代表一个"完整"业务数据包的响应缓存
+         * @param reqBuffer "正好"代表一个"完整"业务数据包的请求缓存 -> 函数返回后归还XBufferPool(不要在函数外继续持有)
+         * @return 正好"代表一个"完整"业务数据包的响应缓存 -> 写完后归还XBufferPool(每次返回新的XBuffer 或直接返回reqBuffer)
+         * null -> 暂时没有响应(e.g 流式实体尚未接收完 见{@link HttpBodyChunk})
+         * 响应很大/需要逐步产生时 -> 返回StreamXBuffer(见{@link StreamXBuffer})
          * <p>
          * 这里...请求 响应对应的业务数据包格式不强求一致
          * e.g 客户端可以 只包含1byte数据的请求获取一个完整的HTTP响应报文
@@ -207,15 +364,144 @@ public class SSNIOServer {
     public static class Container {
 
         /**
-         * 端口
+         * 端口 -> start()之前设置
+         */
+        public static int PORT = 8080;
+
+        /**
+         * 监听端口的连接等待队列长度(ServerSocketChannel.bind的backlog) 0 -> 使用JDK默认值
+         */
+        public static int ACCEPT_BACKLOG = 1024;
+
+        /**
+         * SO_REUSEPORT模式 -> 每个XReactor各自绑定一个非阻塞的ServerSocketChannel(同一端口)
+         * 由内核(Linux 3.9+)在各个监听socket之间分配新连接 XReactor在自己的Selector上批量accept -> 没有XAcceptor线程 & 跨线程转交
+         * 不支持SO_REUSEPORT的平台 -> 退回XAcceptor
+         */
+        public static boolean REUSE_PORT = false;
+
+        /**
+         * SO_REUSEPORT模式下 XReactor每次IO Accept事件最多接受的连接数 -> 连接风暴时也不会长时间不处理已有连接
+         */
+        public static int ACCEPT_BATCH_SIZE = 64;
+
+        /**
+         * 客户端连接的TCP_NODELAY(关闭Nagle算法)
+         */
+        public static boolean TCP_NO_DELAY = false;
+
+        /**
+         * 客户端连接的内核接收/发送缓存大小 0 -> 系统默认
+         * SO_RCVBUF设置在监听socket上(bind之前) -> 接受的连接继承 大于64KB时才能正确协商窗口扩大因子
          */
-        public static final int PORT = 8080;
+        public static int SO_RCVBUF = 0;
+        public static int SO_SNDBUF = 0;
 
         /**
          * 缓存初始值
          */
         public static int X_BUFFER_INITIAL_SIZE = 4 * 1024; //4KB
 
+        /**
+         * HTTP 单个持久连接上最多处理的请求数 -> 达到后关闭连接
+         */
+        public static int HTTP_MAX_KEEP_ALIVE_REQUESTS = 10000;
+
+        /**
+         * HTTP 请求行 + 首部的最大字节数 -> 超过后视为非法请求 关闭连接
+         */
+        public static int HTTP_MAX_HEADER_BYTES = 64 * 1024; //64KB
+
+        /**
+         * HTTP 实体超过该字节数(或Transfer-Encoding: chunked)时以流的方式交给XHandler -> 见{@link HttpBodyChunk}
+         * -1 -> 关闭 实体完整后才交给XHandler
+         */
+        public static long HTTP_STREAMING_BODY_THRESHOLD = -1;
+
+        /**
+         * XBufferPool 大小分级数 -> X_BUFFER_INITIAL_SIZE * 4^n (默认 4KB ~ 1MB)
+         */
+        public static int X_BUFFER_POOL_SIZE_CLASSES = 5;
+
+        /**
+         * XBufferPool 每个大小分级最多缓存的空闲字节数
+         */
+        public static long X_BUFFER_POOL_MAX_BYTES_PER_CLASS = 4 * 1024 * 1024; //4MB
+
+        /**
+         * StaticResourceCache 默认缓存的总字节数上限
+         */
+        public static long STATIC_CACHE_MAX_BYTES = 64 * 1024 * 1024; //64MB
+
+        /**
+         * StaticResourceCache 默认可缓存的单个文件大小上限 -> 更大的文件走sendfile
+         */
+        public static long STATIC_CACHE_MAX_ENTRY_BYTES = 256 * 1024; //256KB
+
+        /**
+         * StaticResourceCache 默认检查文件修改时间(mtime)的间隔
+         */
+        public static long STATIC_CACHE_CHECK_INTERVAL_MILLIS = 1000;
+
+        /**
+         * 响应压缩(gzip/deflate 按请求的Accept-Encoding协商) -> 见{@link XCompression}
+         */
+        public static boolean HTTP_COMPRESSION_ENABLED = false;
+
+        /**
+         * 小于该字节数的实体不压缩(压缩收益抵不过开销)
+         */
+        public static int HTTP_COMPRESSION_MIN_BYTES = 1024; //1KB
+
+        /**
+         * 压缩级别 1(最快) ~ 9(最小)
+         */
+        public static int HTTP_COMPRESSION_LEVEL = 6;
+
+        /**
+         * 可压缩的Content-Type(前缀匹配 不区分大小写)
+         */
+        public static String[] HTTP_COMPRESSION_TYPES = {
+                "text/", "application/json", "application/javascript", "application/xml", "image/svg+xml"
+        };
+
+        /**
+         * 压缩结果缓存的总字节数上限 & 项数上限
+         */
+        public static long HTTP_COMPRESSION_CACHE_MAX_BYTES = 16 * 1024 * 1024; //16MB
+        public static int HTTP_COMPRESSION_CACHE_MAX_ENTRIES = 4096;
+
+        /**
+         * 每种编码(gzip/deflate)最多保留的空闲Deflater数 -> 超过时用完即end() 不依赖GC释放本地内存
+         */
+        public static int HTTP_COMPRESSION_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+        /**
+         * 运行时指标(计数器 直方图 JMX) -> 见{@link XMetrics} start()之前设置
+         */
+        public static boolean METRICS_ENABLED = false;
+
+        /**
+         * Reactor线程发布指标快照(写队列深度 & 直方图)的间隔
+         */
+        public static long METRICS_PUBLISH_INTERVAL_MILLIS = 1000;
+
+        /**
+         * 请求耗时分段追踪(读取 -> 解析 -> XHandler -> 写出) -> 见{@link XTrace} start()之前设置
+         */
+        public static boolean TRACE_ENABLED = false;
+
+        /**
+         * 每个Reactor每N个业务数据包追踪一个 1 -> 全部追踪
+         */
+        public static int TRACE_SAMPLE_RATE = 1;
+
+        /**
+         * 每个周期保留最慢的N个请求 & 周期长度
+         */
+        public static int TRACE_SLOWEST_N = 16;
+        public static long TRACE_INTERVAL_MILLIS = 10_000;
+
         /**
          * IO 事件对应触发的函数之间
          * 交互用的队列默认大小
@@ -223,48 +509,107 @@ public class SSNIOServer {
         public static final int QUEUE_CAPACITY = 1024;
 
         /**
-         * ID计数
+         * 单个连接在途响应(DefaultXWriter中尚未写出的content)的字节数 高/低水位
+         * 超过高水位 -> 暂停读取该连接(不再产生新的响应) 写到低水位以下 -> 恢复读取
          */
-        public static AtomicInteger COUNT = new AtomicInteger(0);
+        public static long WRITE_QUEUE_HIGH_WATERMARK = 1024 * 1024; //1MB
+        public static long WRITE_QUEUE_LOW_WATERMARK = 256 * 1024; //256KB
 
         /**
-         * NIO SocketChannel 调用写函数传递的缓存对象
-         * 业务模型经过 序列化相关XHandler处理完毕后  -> 生成XBuffer
-         * IO写事件 -> XBuffer 拷贝到ByteBuffer -> 进行写操作
+         * 所有连接在途响应的总字节数 高/低水位
+         * 超过高水位 -> 所有Reactor暂停读取有IO读事件的连接 降到低水位以下 -> 恢复读取
          */
-        public static ByteBuffer WRITING_MEDIATOR = ByteBuffer.allocate(X_BUFFER_INITIAL_SIZE * 100);
+        public static long GLOBAL_WRITE_QUEUE_HIGH_WATERMARK = 256 * 1024 * 1024; //256MB
+        public static long GLOBAL_WRITE_QUEUE_LOW_WATERMARK = 192 * 1024 * 1024; //192MB
 
         /**
-         * NIO SocketChannel 调用读函数传递的缓存对象
-         * IO读事件 -> 读操作填充ByteBuffer -> ByteBuffer 拷贝到XBuffer -> XParser尝试解析业务数据包
-         * 传递业务数据包到序列化相关XHandler -> 业务模型
+         * Reactor线程数
+         * 每个XReactor独占一个线程并维护自己的Selector组 连接容器 & 队列
+         * XAcceptor以轮询(round-robin)的方式把新连接分派给各个XReactor -> 多核下吞吐随Reactor数增长
+         * (REUSE_PORT -> 由内核分配)
+         * 默认1 -> 保持原有的双线程模型
          */
-        public static ByteBuffer READING_MEDIATOR = ByteBuffer.allocate(X_BUFFER_INITIAL_SIZE * 100);
+        public static int REACTOR_COUNT = 1;
 
+        /**
+         * XHandler的执行位置(start()之前设置):
+         * 0 -> 直接在Reactor线程中执行(默认 适合不阻塞的XHandler)
+         * N -> 交给N个Worker线程执行(XHandler中有阻塞调用 e.g 数据库/模板渲染) -> 慢的XHandler不会拖住其他连接的IO
+         * 每个连接同时只有一个请求在Worker中 -> 同一连接的响应保持请求的顺序
+         */
+        public static int WORKER_THREADS = 0;
 
         /**
-         * NIO 事件触发的对应函数之间交互用队列
-         * 联系:
-         * 1 XAcceptor监听IO Accept事件 生成的SocketChannel的封装对象XSocket 放入该队列
-         * 2 XReactor在一次循环中取出全部XSocket对象中SocketChannel -> 向Selector注册Read事件的监听
+         * 使用虚拟线程(每个请求一个 JDK 21+)代替WORKER_THREADS个平台线程 -> 当前JDK不支持时退回平台线程
+         * 响应压缩(见{@link XCompression})使用有界的Deflater池 不按线程保存 -> 虚拟线程不会为每个请求新建Deflater
          */
-        public static Queue<XSocket> INBOUND_QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        public static boolean WORKER_VIRTUAL_THREADS = false;
 
         /**
-         * 对应INBOUND_QUEUE
-         * 联系:
-         * 1 承载由XHandler生成 响应对应的业务数据包载体XBuffer
-         * 2 XReactor在一次循环中取出全部XBuffer -> A:更新写事件相关Selector的监听信息 B:往对应XSocket中DefaultXWriter塞入XBuffer
+         * Worker模式下 连接上已解析但还在等待Worker的请求达到该值 -> 暂停读取 直到Worker跟上
          */
-        public static Queue<XBuffer> OUTBOUND_QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        public static int WORKER_MAX_PENDING_REQUESTS = 16;
 
         /**
-         * 竞争安全的ID 生成函数
-         * 用户可以用自定义的id生成 函数替换它(e.g UUID)
+         * Reactor在没有任何IO事件时 阻塞等待(select)的最长时间
+         * 新连接 & 新响应到达时会通过Selector.wakeup()提前唤醒 -> 该值只是兜底
          */
-        public static String getXSocketId() {
-            return "XSocket@" + COUNT.getAndIncrement();
-        }
+        public static long SELECT_TIMEOUT_MILLIS = 1000;
+
+        /**
+         * Reactor进入阻塞等待前 以selectNow()自旋的最多循环次数
+         * 繁忙时(上个循环刚处理过事件)先短暂自旋 -> 避免频繁挂起/唤醒线程带来的延迟
+         * 0 -> 不自旋 空闲时直接阻塞
+         */
+        public static int REACTOR_SPIN_COUNT = 64;
+
+        /**
+         * 空闲超时: 连接上没有读到/写出任何数据的最长时间 <=0 -> 不限制
+         */
+        public static long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+        /**
+         * 读超时: 读缓存中出现不完整业务数据包后 必须在此时间内读完(HTTP下即首部/报文读取超时 -> 防御slowloris) <=0 -> 不限制
+         * 从第一个字节开始计时 后续陆续到达的数据不会延长期限
+         */
+        public static long READ_TIMEOUT_MILLIS = 10 * 1000;
+
+        /**
+         * 写停滞超时: 有在途响应时 写操作没有任何进展的最长时间(对端不读取) <=0 -> 不限制
+         */
+        public static long WRITE_STALL_TIMEOUT_MILLIS = 30 * 1000;
+
+        /**
+         * XTimingWheel 每格时间跨度 -> 超时检查的精度
+         */
+        public static long TIMER_TICK_MILLIS = 100;
+
+        /**
+         * XTimingWheel 格数(向上取2的幂)
+         */
+        public static int TIMER_WHEEL_SIZE = 512;
+
+        /**
+         * DefaultXWriter一次gathering write最多合并的响应数
+         */
+        public static int MAX_GATHERING_BUFFERS = 16;
+
+        /**
+         * 一次IO读事件下 单个连接最多读取的字节数
+         * 避免单个连接持续发送数据时 其他连接长时间得不到处理
+         */
+        public static int MAX_READ_BYTES_PER_EVENT = X_BUFFER_INITIAL_SIZE * 100;
+
+        /**
+         * 一次IO写事件下 单个流式响应(StreamXBuffer)最多写出的字节数
+         * 避免数据源源不断的流式响应长时间占用Reactor线程
+         */
+        public static int MAX_WRITE_BYTES_PER_EVENT = X_BUFFER_INITIAL_SIZE * 100;
+
+        /**
+         * 每个XReactor连接注册表(XSocketRegistry)的初始容量 -> 不够时扩容为2倍
+         */
+        public static int REGISTRY_INITIAL_CAPACITY = 1024;
     }
 
 
@@ -272,761 +617,6431 @@ public class SSNIOServer {
      * NIO SocketChannel 的封装对象
      * 每个成功建立的客户端连接维护一个独立的XSocket
      * 内部:
-     * 维护一个唯一标识符xSocketId(String)
+     * 维护一个唯一标识符xSocketId(long句柄 注册到XReactor时分配 见{@link XSocketRegistry})
      * 维护一组读写缓存(XBuffer)
      * 维护一个特定协议下的业务数据包解析器(XParser)
      * 维护一个通用的 跨协议的Writer(单个响应对应的业务数据包必须对应单个XBuffer缓存)
+     * 维护所属的XReactor(连接的整个生命周期只由这一个Reactor线程处理)
+     * 维护在XReactor的Selector上注册得到的唯一SelectionKey(通过切换interestOps决定是否监听写事件)
      * XSocket如同一个桥梁->维护了读写相关组件/缓存的一对一对应关系
      */
     public class XSocket {
-        public String xSocketId;
+        public long xSocketId;
         public SocketChannel socketChannel;
+        public XReactor xReactor;
+        public SelectionKey selectionKey;
         public XBuffer readBuffer;
         public XBuffer writeBuffer;
         public XParser xParser;
         public DefaultXWriter xWriter;
         public boolean endOfStreamReached = false;
+        /**
+         * 解析出了连接上的最后一个业务数据包(见{@link XBuffer#closeConnection}) -> 响应写完后关闭
+         */
+        public boolean closeRequested = false;
+        /**
+         * 已停止读取 等待在途响应写完后关闭
+         */
+        public boolean closing = false;
+
+        /**
+         * 暂停读取的原因(位掩码) -> 任意一个原因存在时不监听读事件
+         */
+        public static final int READ_SUSPENDED_BY_HANDLER = 1;
+        /**
+         * 在途响应超过WRITE_QUEUE_HIGH_WATERMARK(对端读得慢)
+         */
+        public static final int READ_SUSPENDED_BY_BACKPRESSURE = 2;
+        /**
+         * 所有连接的在途响应超过GLOBAL_WRITE_QUEUE_HIGH_WATERMARK
+         */
+        public static final int READ_SUSPENDED_BY_GLOBAL_LIMIT = 4;
+        /**
+         * Worker模式下等待Worker的请求达到WORKER_MAX_PENDING_REQUESTS
+         */
+        public static final int READ_SUSPENDED_BY_WORKER = 8;
+        /**
+         * 只由所属Reactor线程访问
+         */
+        private int readSuspendReasons;
+        /**
+         * 正在执行XHandler(见{@link XReactor#dispatchRequests(XSocket)}) -> 防止XHandler中恢复读取时重入
+         */
+        boolean dispatching;
+
+        /**
+         * 超时相关时间戳(毫秒 取自所属XReactor的循环时间 见{@link XReactor#now})
+         * lastActivityMillis      -> 最近一次读到/写出数据
+         * partialReadSinceMillis  -> 读缓存中开始出现不完整业务数据包的时间 0 -> 读缓存为空
+         * lastWriteProgressMillis -> 最近一次写出数据(或开始有在途响应)
+         */
+        public long lastActivityMillis;
+        public long partialReadSinceMillis;
+        public long lastWriteProgressMillis;
+
+        /**
+         * 开启追踪时(见{@link XTrace}) 读缓存中下一个业务数据包的Selector返回 & 读到首字节时间(纳秒)
+         */
+        long traceSelectedNanos;
+        long traceFirstByteNanos;
+
+        /**
+         * XTimingWheel中的侵入式双向链表节点 -> 调度/取消都是O(1)且不产生对象
+         */
+        XSocket timerPrev;
+        XSocket timerNext;
+        long timerDeadline;
+        int timerSlot = -1;
+
+        /**
+         * 流式实体的后续数据段(HttpBodyChunk)交给的处理器 -> 由XRouter路由请求头时设置
+         */
+        XHandler bodyHandler;
+
+        /**
+         * Worker模式下正在Worker中处理的请求(每个连接最多一个 -> 响应保持顺序) null -> 没有
+         * 由Reactor线程提交前设置 Worker完成后填入响应/异常 & XHandler的开始/结束时间 -> 交回所属XReactor(见{@link XReactor#completeWorkerRequests()})
+         */
+        XBuffer workerRequest;
+        XBuffer workerResponse;
+        RuntimeException workerFailure;
+        long workerHandleStartNanos;
+        long workerHandleEndNanos;
+        /**
+         * 提交给Worker线程池的任务 -> 每个连接只创建一次
+         */
+        Runnable workerTask;
 
-        public XSocket(SocketChannel sc) {
+        /**
+         * 读写缓存使用所属XReactor的XBufferPool 并在第一次缓存数据时才分配(在Reactor线程中)
+         * xSocketId在注册到XReactor时分配
+         */
+        public XSocket(SocketChannel sc, XReactor xReactor) {
             this.socketChannel = sc;
-            this.xSocketId = Container.getXSocketId();
-            this.readBuffer = new XBuffer();
-            this.readBuffer.xSocketId = this.xSocketId;
-            this.writeBuffer = new XBuffer();
-            this.writeBuffer.xSocketId = this.xSocketId;
+            this.xReactor = xReactor;
+            this.readBuffer = new XBuffer(xReactor.bufferPool, 0);
+            this.readBuffer.xSocket = this;
+            this.writeBuffer = new XBuffer(xReactor.bufferPool, 0);
             this.xWriter = new DefaultXWriter();
         }
 
+        /**
+         * 注册之前改为分派给另一个XReactor(e.g 原XReactor的inboundQueue已满) -> 读写缓存改用其XBufferPool
+         */
+        void reassign(XReactor xReactor) {
+            this.xReactor = xReactor;
+            readBuffer.pool = xReactor.bufferPool;
+            writeBuffer.pool = xReactor.bufferPool;
+        }
+
         /**
          * 委派DefaultXWriter 执行写操作
+         * 在途响应全部写完 -> 不再监听写事件
          */
         public void write() throws IOException {
-            xWriter.write(Container.WRITING_MEDIATOR, socketChannel);
+            long bytesWritten = xWriter.write(socketChannel);
+            if (bytesWritten > 0) {
+                lastActivityMillis = lastWriteProgressMillis = xReactor.now;
+                if (xReactor.metrics != null) xReactor.metrics.bytesWritten += bytesWritten;
+            }
+            if (xWriter.isEmpty() || xWriter.isAwaitingTail()) {
+                disableInterest(SelectionKey.OP_WRITE);
+            }
+            if (/**写到低水位以下 -> 恢复读取**/(readSuspendReasons & READ_SUSPENDED_BY_BACKPRESSURE) != 0
+                    && xWriter.getQueuedBytes() <= Container.WRITE_QUEUE_LOW_WATERMARK) {
+                resumeRead(READ_SUSPENDED_BY_BACKPRESSURE);
+            }
         }
 
         /**
-         * IO读事件触发
-         * 重复尝试读取二进制数据流 -> 直到在这一次IO读事件下 对应的SocketChannel读不到数据为止
-         * 累加IO读事件下累计读取的数据 -> 调用业务数据包解析器XParser尝试解析
+         * 在途响应有了新的数据(见{@link StreamXBuffer#signal()}) -> 重新监听写事件
+         * 可由任意线程调用 -> 非Reactor线程时转交给所属XReactor执行
          */
-        public void read() throws IOException {
-            ByteBuffer mediator = Container.READING_MEDIATOR;
-
-            int byteRead = keepReadingToByteBuffer(mediator);
-            if (byteRead == 0) return;
-            if (byteRead == -1) {
-                endOfStreamReached = true;
+        public void resumeWrite() {
+            if (!xReactor.inReactorThread()) {
+                xReactor.execute(this::resumeWrite);
                 return;
             }
-
-            mediator.flip();
-            readBuffer.cache(mediator);
-            xParser.parse(readBuffer);
-            mediator.clear();
+            if (xWriter.isEmpty() || !socketChannel.isOpen()) return;
+            lastWriteProgressMillis = xReactor.now;
+            enableInterest(SelectionKey.OP_WRITE);
+            xReactor.refreshTimeout(this);
         }
 
         /**
-         * @param mediator NIO SocketChannel接收的缓存参数
-         *                 尝试重复读取 -> 读到本次IO 读事件下无法读取更多数据为止
+         * 推送一个完整的响应业务数据包到DefaultXWriter
+         * DefaultXWriter从空变为有在途响应 -> 开始监听写事件
+         * 在途响应超过WRITE_QUEUE_HIGH_WATERMARK -> 暂停读取
          */
-        private int keepReadingToByteBuffer(ByteBuffer mediator) throws IOException {
-            int bytesRead = socketChannel.read(mediator);
-            int totalBytesRead = bytesRead;
-
-            while (bytesRead > 0) {
-                bytesRead = socketChannel.read(mediator);
-                totalBytesRead += bytesRead;
+        public void enqueue(XBuffer respBuffer) {
+            respBuffer.xSocket = this;
+            if (respBuffer.traceFirstByteNanos != 0) {
+                respBuffer.traceEnqueuedNanos = System.nanoTime();
             }
+            boolean wasEmpty = xWriter.isEmpty();
+            xWriter.enqueue(respBuffer);
+            if (wasEmpty) {
+                lastWriteProgressMillis = xReactor.now;
+                enableInterest(SelectionKey.OP_WRITE);
+            }
+            if (/**超过高水位 -> 暂停读取 直到对端把响应读走**/(readSuspendReasons & READ_SUSPENDED_BY_BACKPRESSURE) == 0
+                    && xWriter.getQueuedBytes() > Container.WRITE_QUEUE_HIGH_WATERMARK) {
+                XBackpressure.SUSPENSIONS.increment();
+                suspendRead(READ_SUSPENDED_BY_BACKPRESSURE);
+            }
+        }
 
-            return totalBytesRead;
+        public void enableInterest(int ops) {
+            if (selectionKey.isValid()) {
+                selectionKey.interestOps(selectionKey.interestOps() | ops);
+            }
         }
-    }
 
-    /**
-     * 阻塞型 IO Accept事件监听器
-     * 职责:
-     * 监听端口 -> 生成SocketChannel封装对象XSocket -> 推送队列
-     * 由线程单独启动(为了不阻塞其他非阻塞型操作)
-     * 该对象全局唯一且不会随着连接/请求的增加而改变 -> 从Reactor对象中抽离且由单独线程维护便于更好的理解
-     */
-    public class XAcceptor implements Runnable {
+        public void disableInterest(int ops) {
+            if (selectionKey.isValid()) {
+                selectionKey.interestOps(selectionKey.interestOps() & ~ops);
+            }
+        }
 
         /**
-         * 阻塞式 服务端channel
-         * 阻塞状态...直到连接建立
+         * 暂停读取(e.g XHandler处理流式实体的速度跟不上) -> 不再监听读事件 对端的发送被TCP流量控制挡住
+         * 可由任意线程调用 -> 非Reactor线程时转交给所属XReactor执行
+         *
+         * @param reason 暂停原因 每个原因各自暂停/恢复 e.g {@link #READ_SUSPENDED_BY_HANDLER}
          */
-        private ServerSocketChannel ssc;
+        public void suspendRead(int reason) {
+            if (!xReactor.inReactorThread()) {
+                xReactor.execute(() -> suspendRead(reason));
+                return;
+            }
+            readSuspendReasons |= reason;
+            disableInterest(SelectionKey.OP_READ);
+            xReactor.refreshTimeout(this);
+        }
 
         /**
-         * 用于获取 自定义协议下的业务数据包解析器的简单工厂
+         * 取消reason对应的暂停 -> 不再有任何暂停原因时恢复监听读事件
+         * 并继续处理暂停前已解析 但尚未交给XHandler的业务数据包
+         * 可由任意线程调用
          */
-        public CodeCFactory codeCFactory;
-
-        public XAcceptor() throws IOException {
-            this.ssc = ServerSocketChannel.open();
-            ssc.bind(new InetSocketAddress(Container.PORT));
+        public void resumeRead(int reason) {
+            if (!xReactor.inReactorThread()) {
+                xReactor.execute(() -> resumeRead(reason));
+                return;
+            }
+            if (readSuspendReasons == 0) return;
+            readSuspendReasons &= ~reason;
+            if (readSuspendReasons != 0 || !socketChannel.isOpen()) return;
+            if (!closing) {
+                enableInterest(SelectionKey.OP_READ);
+            }
+            xReactor.refreshTimeout(this);
+            try {
+                xReactor.dispatchRequests(this);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                xReactor.closeSocket(this);
+            }
         }
 
-        @Override
-        public void run() {
-
-            while (true) {
-                try {
-                    SocketChannel sc = ssc.accept();
-                    //服务端监听端口对应的ServerSocketChannel -> 阻塞式
-                    //客户端连接对应的SocketChannel -> 非阻塞式
-                    sc.configureBlocking(false);
-                    XSocket xSocket = new XSocket(sc);
-                    xSocket.xParser = codeCFactory.createXReader();
+        public boolean isReadSuspended() {
+            return readSuspendReasons != 0;
+        }
 
-                    Container.INBOUND_QUEUE.offer(xSocket);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        /**
+         * Worker线程中执行 -> 处理workerRequest 完成后交回所属XReactor
+         */
+        private void handleInWorker() {
+            workerHandleStartNanos = System.nanoTime();
+            try {
+                workerResponse = xReactor.handler.handle(workerRequest);
+            } catch (RuntimeException e) {
+                workerFailure = e;
+            } finally {
+                workerHandleEndNanos = System.nanoTime();
+                xReactor.offerWorkerCompletion(this);
             }
         }
-    }
 
+        /**
+         * IO读事件触发
+         * 重复尝试读取二进制数据流 -> 直到在这一次IO读事件下 对应的SocketChannel读不到数据为止
+         * SocketChannel直接读入读缓存(XBuffer)内部byte[]的空闲空间 -> 没有过渡缓存 没有拷贝
+         * 累加IO读事件下累计读取的数据 -> 调用业务数据包解析器XParser在读缓存上原地解析
+         */
+        public void read() throws IOException {
+            long readStartNanos = 0;
+            if (xReactor.tracing) {
+                readStartNanos = System.nanoTime();
+                if (/**读缓存为空 -> 下一个业务数据包从本次读取开始**/readBuffer.length == 0) {
+                    traceSelectedNanos = xReactor.selectedNanos;
+                    traceFirstByteNanos = readStartNanos;
+                }
+            }
+            int bytesRead = keepReadingToXBuffer();
+            if (bytesRead == 0) return;
+
+            lastActivityMillis = xReactor.now;
+            int parsedBefore = readStartNanos == 0 ? 0 : xParser.getOutputs().size();
+            XReactorMetrics metrics = xReactor.metrics;
+            if (metrics == null) {
+                xParser.parse(readBuffer);
+            } else {
+                metrics.bytesRead += bytesRead;
+                long start = System.nanoTime();
+                xParser.parse(readBuffer);
+                metrics.parseNanos.record(System.nanoTime() - start);
+            }
+            if (readStartNanos != 0) {
+                traceParsed(parsedBefore, readStartNanos);
+            }
+
+            if (readBuffer.length == 0) {
+                partialReadSinceMillis = 0;
+            } else if (partialReadSinceMillis == 0) {
+                partialReadSinceMillis = xReactor.now;
+            }
+        }
+
+        /**
+         * 给本次解析出的业务数据包(按TRACE_SAMPLE_RATE抽样)记录追踪时间戳
+         * 第一个业务数据包的首字节可能在之前的读取中 -> 之后的都从本次读取开始
+         *
+         * @param from 本次解析前XParser输出中已有的业务数据包数量
+         */
+        private void traceParsed(int from, long readStartNanos) {
+            List<XBuffer> outputs = xParser.getOutputs();
+            if (outputs.size() == from) return;
+            long parsedNanos = System.nanoTime();
+            for (int i = from; i < outputs.size(); i++) {
+                if (xReactor.sampleTrace()) {
+                    XBuffer output = outputs.get(i);
+                    output.traceSelectedNanos = traceSelectedNanos;
+                    output.traceFirstByteNanos = traceFirstByteNanos;
+                    output.traceParsedNanos = parsedNanos;
+                }
+                traceSelectedNanos = xReactor.selectedNanos;
+                traceFirstByteNanos = readStartNanos;
+            }
+        }
+
+        /**
+         * 尝试重复读取 -> 读到本次IO 读事件下无法读取更多数据为止(或达到MAX_READ_BYTES_PER_EVENT)
+         * 读到流末尾时标记endOfStreamReached
+         *
+         * @return 本次读取的字节数
+         */
+        private int keepReadingToXBuffer() throws IOException {
+            int totalBytesRead = 0;
+
+            while (totalBytesRead < Container.MAX_READ_BYTES_PER_EVENT) {
+                int bytesRead = readBuffer.readFrom(socketChannel);
+                if (bytesRead == -1) {
+                    endOfStreamReached = true;
+                    break;
+                }
+                if (bytesRead == 0) break;
+                totalBytesRead += bytesRead;
+            }
+
+            return totalBytesRead;
+        }
+    }
+
+    /**
+     * 阻塞型 IO Accept事件监听器
+     * 职责:
+     * 监听端口 -> 生成SocketChannel封装对象XSocket -> 轮询选出一个XReactor -> 推送该XReactor的队列
+     * 由线程单独启动(为了不阻塞其他非阻塞型操作)
+     * 该对象全局唯一且不会随着连接/请求的增加而改变 -> 从Reactor对象中抽离且由单独线程维护便于更好的理解
+     */
+    public class XAcceptor implements Runnable {
+
+        /**
+         * 阻塞式 服务端channel
+         * 阻塞状态...直到连接建立
+         */
+        private ServerSocketChannel ssc;
+
+        /**
+         * 用于获取 自定义协议下的业务数据包解析器的简单工厂
+         */
+        public CodeCFactory codeCFactory;
+
+        /**
+         * 可分派的XReactor组
+         */
+        private XReactor[] xReactors;
+
+        /**
+         * 轮询分派用的计数 -> 只由XAcceptor线程访问
+         */
+        private int nextReactorIndex;
+
+        public XAcceptor(XReactor[] xReactors) throws IOException {
+            this.xReactors = xReactors;
+            this.ssc = openServerSocketChannel(false);
+        }
+
+        @Override
+        public void run() {
+
+            while (true) {
+                SocketChannel sc = null;
+                try {
+                    sc = ssc.accept();
+                    XMetrics.ACCEPTED.increment();
+                    configureAcceptedSocket(sc);
+                    if (!dispatch(sc)) {
+                        /**所有XReactor的inboundQueue都已满 -> 拒绝该连接 而不是悄悄丢掉**/
+                        XMetrics.ACCEPT_REJECTED.increment();
+                        sc.close();
+                    }
+                } catch (IOException e) {
+                    XMetrics.ACCEPT_ERRORS.increment();
+                    e.printStackTrace();
+                    if (sc != null && sc.isOpen()) {
+                        try {
+                            sc.close();
+                        } catch (IOException ignored) {
+                            // already failed
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * round-robin -> 连接均匀地分散到各个XReactor
+         * 选中的XReactor的inboundQueue已满 -> 依次尝试下一个
+         *
+         * @return false -> 所有XReactor的inboundQueue都已满
+         */
+        private boolean dispatch(SocketChannel sc) {
+            XSocket xSocket = new XSocket(sc, xReactors[nextReactorIndex]);
+            xSocket.xParser = codeCFactory.createXReader();
+            for (int attempt = 0; attempt < xReactors.length; attempt++) {
+                XReactor xReactor = xReactors[nextReactorIndex];
+                nextReactorIndex = (nextReactorIndex + 1) % xReactors.length;
+                if (attempt > 0) xSocket.reassign(xReactor);
+                if (xReactor.inboundQueue.offer(xSocket)) {
+                    xReactor.wakeup();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * 参考Doug Lea Reactor Pattern
+     * Reactor对象
+     * SSNIOServer 中最核心模块
+     * <p>
+     * 维护:
+     * A 执行业务模型序列化 & 反序列化 & 处理的XHandler
+     * B 同时监听IO 读 & 写事件的单个Selector
+     * C IO Accept 事件产生的XSocket容器(XSocketRegistry 以long句柄O(1)查找)
+     * D 与XAcceptor & XHandler交互用的inboundQueue & outboundQueue
+     * E 分配XBuffer内部byte[]用的XBufferPool
+     * <p>
+     * 每个连接在Selector上只注册一次 -> XSocket持有唯一的SelectionKey
+     * 是否监听写事件通过切换interestOps实现(OP_READ <-> OP_READ|OP_WRITE):
+     * DefaultXWriter从空变为有在途响应时加上OP_WRITE 全部写完时去掉OP_WRITE
+     * -> 不需要在每个循环中重复注册/取消注册 也不需要额外的XSocket容器记录写状态
+     * <p>
+     * 可以同时存在多个XReactor(见{@link Container#REACTOR_COUNT}) -> 每个XReactor只处理分派给自己的连接
+     * 以上成员全部由XReactor独占 -> Reactor线程之间没有共享的可变状态
+     * <p>
+     * 由单独线程启动 执行"无限次"的循环:
+     * 0 没有待处理的工作时 阻塞在Selector上(select(timeout)) -> 空闲时不占用CPU
+     *   XAcceptor推送新连接 / 产生新的响应时通过{@link XReactor#wakeup()}唤醒
+     * 1 获取所有IO Accept事件产生的SocketChannel -> 向Selector注册读事件的监听
+     *   (REUSE_PORT模式下 XReactor的Selector同时监听自己的ServerSocketChannel -> 步骤2中直接accept & 注册 不经过inboundQueue)
+     *   执行其他线程交给该Reactor的任务(见{@link XReactor#execute(Runnable)})
+     * 2 向Selector咨询 产生IO事件对应的SelectionKey, 找到封装对象XSocket:
+     *   A "IO读事件" -> 执行读取后 委派XParser进行缓存 尝试解析
+     *   B 在上一步成功获取"完整"业务数据包的场景下 执行XHandler 进行 : A 业务数据包载体XBuffer -> 业务模型转换 B业务模型处理 C 业务模型 -> 响应对应的业务数据包载体XBuffer转换
+     *   C "IO写事件" -> 委派DefaultXWriter进行写操作 全部写完后去掉OP_WRITE
+     * 3 在XHandler产生XBuffer场景下 通过对应xSocketId找到SocketChannel封装对象XSocket后 推送XBuffer到对应的DefaultXWriter(必要时加上OP_WRITE)
+     *   Reactor线程中产生的该连接的响应直接推送 其他线程产生的响应经outboundQueue推送
+     *   在途响应超过水位时暂停读取(见{@link XBackpressure}) -> 响应不丢弃 堆中的在途响应也有上限
+     * 4 关闭已读到流末尾(对端关闭)并且响应已全部写完的连接
+     * 5 推进XTimingWheel -> 关闭 空闲/读/写停滞 超时的连接
+     * 6 下一个循环....
+     */
+    public class XReactor implements Runnable {
+        public XHandler handler;
+
+        /**
+         * REUSE_PORT模式下该Reactor自己的非阻塞监听端口 & 新连接的XParser工厂 -> XAcceptor模式下为null
+         */
+        private ServerSocketChannel listener;
+        private CodeCFactory codeCFactory;
+
+        /**
+         * NIO 事件触发的对应函数之间交互用队列
+         * 联系:
+         * 1 XAcceptor监听IO Accept事件 生成的SocketChannel的封装对象XSocket 放入该队列
+         * 2 XReactor在一次循环中取出全部XSocket对象中SocketChannel -> 向Selector注册Read事件的监听
+         */
+        public final Queue<XSocket> inboundQueue = new ArrayBlockingQueue<>(Container.QUEUE_CAPACITY);
+
+        /**
+         * 对应inboundQueue
+         * 联系:
+         * 1 承载由XHandler生成 响应对应的业务数据包载体XBuffer
+         * 2 XReactor在一次循环中取出全部XBuffer -> 往对应XSocket中DefaultXWriter塞入XBuffer(必要时打开对写事件的监听)
+         * 响应不能丢弃 -> 不限容量 由写队列水位暂停读取(不再产生新的响应)来限制
+         */
+        public final Queue<XBuffer> outboundQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 其他线程交给Reactor线程执行的任务(e.g 暂停/恢复读取) -> 不能丢弃 所以不限容量
+         */
+        private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Worker模式下 Worker完成了请求的连接(见{@link XSocket#workerRequest}) -> 同outboundQueue 由Reactor线程推送响应
+         * 每个连接最多一个在Worker中的请求 -> 容量不超过连接数
+         */
+        private final Queue<XSocket> workerCompletions = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 执行XHandler的Worker线程池(所有XReactor共享) null -> 直接在Reactor线程中执行
+         */
+        ExecutorService workerPool;
+
+        /**
+         * Reactor线程 -> run()开始时记录
+         */
+        private volatile Thread reactorThread;
+
+        /**
+         * 该Reactor线程专用的XBufferPool
+         * 连接的读写缓存 解析出的请求 XHandler在该线程中创建的响应 -> 都从这里分配
+         */
+        public final XBufferPool bufferPool = new XBufferPool();
+
+        /**
+         * 该Reactor的下标 -> 编码在连接句柄中
+         */
+        public final int index;
+
+        private final XSocketRegistry registry;
+
+        /**
+         * 已读到流末尾 等待在途响应写完后关闭的连接
+         */
+        private List<XSocket> closingSockets;
+
+        private Selector selector;
+
+        /**
+         * Reactor线程是否(即将)阻塞在select上
+         * 只有阻塞时才需要调用代价较高的Selector.wakeup()
+         */
+        private final AtomicBoolean sleeping = new AtomicBoolean(false);
+
+        /**
+         * 连续没有处理任何事件的循环次数 -> 用于自适应自旋
+         */
+        private int idleLoops;
+
+        /**
+         * 因GLOBAL_WRITE_QUEUE_HIGH_WATERMARK暂停读取的连接 -> 降到低水位以下时恢复
+         */
+        private final List<XSocket> globallySuspendedSockets = new ArrayList<>();
+
+        /**
+         * 本次循环的时间(毫秒) -> 每次循环只调用一次System.currentTimeMillis()
+         */
+        long now = System.currentTimeMillis();
+
+        /**
+         * 管理所有连接超时的时间轮
+         */
+        private final XTimingWheel timingWheel = new XTimingWheel(Container.TIMER_TICK_MILLIS, Container.TIMER_WHEEL_SIZE, now);
+
+        /**
+         * 该Reactor的指标 未开启时为null
+         */
+        final XReactorMetrics metrics;
+
+        /**
+         * 是否开启追踪(见{@link XTrace}) & 本次循环Selector返回的时间(纳秒 只在开启时记录)
+         */
+        final boolean tracing = Container.TRACE_ENABLED;
+        long selectedNanos;
+
+        /**
+         * 距离下一个被追踪的业务数据包还有几个
+         */
+        private int traceCountdown = 1;
+
+        public XReactor(int index) throws IOException {
+            this.index = index;
+            this.registry = new XSocketRegistry(index, Container.REGISTRY_INITIAL_CAPACITY);
+            this.metrics = Container.METRICS_ENABLED ? new XReactorMetrics(this) : null;
+            this.closingSockets = new ArrayList<>();
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            reactorThread = Thread.currentThread();
+            bufferPool.bind();
+
+            while (true) {
+                try {
+                    awaitIoEvents();//步骤0
+                    now = System.currentTimeMillis();
+                    if (tracing) selectedNanos = System.nanoTime();
+                    registerAllAcceptedSockets();//步骤1
+                    runPendingTasks();
+                    completeWorkerRequests();
+                    processReadySockets();//步骤2
+                    resumeGloballySuspendedSockets();
+                    refreshWritingSocketsInfo(); //步骤3
+                    closeDrainedSockets();//步骤4
+                    timingWheel.advance(now, this);//步骤5
+                    if (metrics != null) {
+                        metrics.loopIterations++;
+                        metrics.maybePublish(now);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * 唤醒阻塞在select上的Reactor线程
+         * 可由任意线程调用(XAcceptor推送新连接后 / XHandler产生响应后)
+         * Reactor线程没有阻塞时只是一次CAS -> 不产生系统调用
+         */
+        public void wakeup() {
+            if (sleeping.compareAndSet(true, false)) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * 交给Reactor线程执行 & 唤醒Reactor
+         * 可由任意线程调用 -> 任务中可以安全地访问该Reactor的连接
+         */
+        public void execute(Runnable task) {
+            taskQueue.offer(task);
+            wakeup();
+        }
+
+        public boolean inReactorThread() {
+            return Thread.currentThread() == reactorThread;
+        }
+
+        /**
+         * 按TRACE_SAMPLE_RATE抽样 -> 每N个业务数据包返回一次true
+         */
+        boolean sampleTrace() {
+            if (--traceCountdown > 0) return false;
+            traceCountdown = Math.max(1, Container.TRACE_SAMPLE_RATE);
+            return true;
+        }
+
+        /**
+         * 推送XHandler生成的响应 & 唤醒Reactor
+         * 可由任意线程调用
+         */
+        public void offerOutbound(XBuffer respBuffer) {
+            if (respBuffer == null) return;
+            outboundQueue.offer(respBuffer);
+            wakeup();
+        }
+
+        /**
+         * Worker线程处理完xSocket.workerRequest -> 交回该Reactor & 唤醒
+         */
+        void offerWorkerCompletion(XSocket xSocket) {
+            workerCompletions.offer(xSocket);
+            wakeup();
+        }
+
+
+        /**************************************私有函数*********************************************/
+
+        /**
+         * 等待IO事件:
+         * A 上个循环刚处理过事件 -> 自旋selectNow() 最多REACTOR_SPIN_COUNT次
+         * B 空闲 -> 阻塞在select(timeout)上 直到有IO事件/被wakeup()/超时
+         * 有待写出响应的连接监听着OP_WRITE -> 可写时select自然返回 不需要额外处理
+         * 选中的SelectionKey留给processReadySockets()处理
+         */
+        private void awaitIoEvents() throws IOException {
+            if (idleLoops < Container.REACTOR_SPIN_COUNT) {
+                int selectedCount = selector.selectNow();
+                idleLoops = selectedCount > 0 ? 0 : idleLoops + 1;
+                return;
+            }
+
+            sleeping.set(true);
+            if (/**阻塞前再次检查 -> 避免错过在sleeping置位前推送的任务**/!inboundQueue.isEmpty() || !outboundQueue.isEmpty() || !taskQueue.isEmpty()
+                    || !workerCompletions.isEmpty()) {
+                sleeping.set(false);
+                selector.selectNow();
+            } else {
+                /**有连接需要超时检查/等待全局水位下降时 至少每格唤醒一次**/
+                selector.select(timingWheel.isEmpty() && globallySuspendedSockets.isEmpty()
+                        ? Container.SELECT_TIMEOUT_MILLIS
+                        : Math.min(Container.SELECT_TIMEOUT_MILLIS, Container.TIMER_TICK_MILLIS));
+                sleeping.set(false);
+            }
+            idleLoops = 0;
+        }
+
+        private void registerAllAcceptedSockets() throws IOException {
+            XSocket socket = inboundQueue.poll();
+
+            while (socket != null) {
+                register(socket);
+                socket = inboundQueue.poll();
+            }
+        }
+
+        private void register(XSocket socket) throws IOException {
+            socket.selectionKey = socket.socketChannel
+                    .register(selector, SelectionKey.OP_READ, socket);
+            socket.lastActivityMillis = now;
+
+            socket.xSocketId = registry.register(socket);
+            socket.readBuffer.xSocketId = socket.xSocketId;
+            socket.writeBuffer.xSocketId = socket.xSocketId;
+            if (metrics != null) metrics.connectionsOpened++;
+            refreshTimeout(socket);
+        }
+
+        /**
+         * REUSE_PORT模式: 绑定该Reactor自己的ServerSocketChannel(SO_REUSEPORT) & 向Selector注册IO Accept事件的监听
+         * 在Reactor线程启动之前调用
+         */
+        void listen(CodeCFactory codeCFactory) throws IOException {
+            this.codeCFactory = codeCFactory;
+            listener = openServerSocketChannel(true);
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        /**
+         * IO Accept事件触发(REUSE_PORT模式)
+         * 非阻塞accept -> 直到没有等待中的连接 或达到ACCEPT_BATCH_SIZE(剩余的连接下一个循环继续)
+         * 新连接直接在该Reactor上注册 -> 没有跨线程转交
+         */
+        private void acceptSockets() {
+            for (int i = 0; i < Container.ACCEPT_BATCH_SIZE; i++) {
+                SocketChannel sc;
+                try {
+                    sc = listener.accept();
+                } catch (IOException e) {
+                    /**e.g 文件描述符耗尽 -> 连接留在backlog中 下一个循环再试**/
+                    XMetrics.ACCEPT_ERRORS.increment();
+                    e.printStackTrace();
+                    return;
+                }
+                if (sc == null) return;
+                XMetrics.ACCEPTED.increment();
+
+                XSocket xSocket = new XSocket(sc, this);
+                try {
+                    configureAcceptedSocket(sc);
+                    xSocket.xParser = codeCFactory.createXReader();
+                    register(xSocket);
+                } catch (IOException e) {
+                    XMetrics.ACCEPT_ERRORS.increment();
+                    closeSocket(xSocket);
+                }
+            }
+        }
+
+        private void runPendingTasks() {
+            Runnable task = taskQueue.poll();
+            while (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                task = taskQueue.poll();
+            }
+        }
+
+        private void processReadySockets() {
+            Set<SelectionKey> selectionKeys = selector.selectedKeys();
+            if (selectionKeys.isEmpty()) return;
+
+            Iterator<SelectionKey> it = selectionKeys.iterator();
+            while (it.hasNext()) {
+                SelectionKey selectionKey = it.next();
+                it.remove();
+                if (/**REUSE_PORT模式下的监听端口**/selectionKey.attachment() == null) {
+                    acceptSockets();
+                    continue;
+                }
+                XSocket xSocket = (XSocket) selectionKey.attachment();
+
+                try {
+                    if (selectionKey.isReadable()) {
+                        readSocket(xSocket);
+                    }
+                    if (selectionKey.isValid() && selectionKey.isWritable()) {
+                        xSocket.write();
+                    }
+                    refreshTimeout(xSocket);
+                } catch (IOException | CancelledKeyException e) {
+                    /**连接异常(e.g 对端重置) -> 直接关闭 不影响其他连接**/
+                    closeSocket(xSocket);
+                } catch (RuntimeException e) {
+                    /**解析/XHandler异常 -> 只关闭该连接 Reactor线程继续运行**/
+                    e.printStackTrace();
+                    closeSocket(xSocket);
+                }
+            }
+        }
+
+        private void readSocket(XSocket xSocket) throws IOException {
+            if (/**所有连接的在途响应过多 -> 暂不读取(数据留在内核接收缓存 由TCP流量控制挡住对端)**/XBackpressure.isOverGlobalLimit()) {
+                suspendForGlobalLimit(xSocket);
+                return;
+            }
+            xSocket.read();
+            dispatchRequests(xSocket);
+        }
+
+        /**
+         * 执行XHandler处理XParser解析出的业务数据包 -> 响应直接推送到该连接的DefaultXWriter
+         * 连接暂停读取(e.g 在途响应超过高水位 / 全局高水位 / XHandler主动暂停)后立即停止
+         * -> 剩余的业务数据包留在XParser的输出中 恢复读取时继续(见{@link XSocket#resumeRead(int)})
+         * 这样一次读取中的大量管线化请求也不会一次产生无限多的响应
+         * <p>
+         * Worker模式(见{@link Container#WORKER_THREADS}) -> 每次只提交一个请求给Worker 完成后(见{@link #completeWorkerRequests()})再提交下一个
+         */
+        void dispatchRequests(XSocket xSocket) {
+            if (/**XHandler中恢复读取 -> 由外层继续**/xSocket.dispatching) return;
+            List<XBuffer> completeMsgBufferBlocks = xSocket.xParser.getOutputs();
+
+            if (/**解析出完整的业务数据包**/completeMsgBufferBlocks.size() > 0 && handler != null) {
+                xSocket.dispatching = true;
+                int handledCount = 0;
+                try {
+                    /**执行XHandler 进行 :
+                     *  A 业务数据包载体XBuffer -> 业务模型转换
+                     *  B 业务模型处理
+                     *  C 业务模型 -> 响应对应的业务数据包载体XBuffer转换**/
+                    while (handledCount < completeMsgBufferBlocks.size() && !xSocket.isReadSuspended()) {
+                        if (XBackpressure.isOverGlobalLimit()) {
+                            suspendForGlobalLimit(xSocket);
+                            break;
+                        }
+                        if (/**Worker模式 -> 连接上的上一个请求完成后才提交下一个**/workerPool != null) {
+                            if (xSocket.workerRequest == null) {
+                                submitToWorker(xSocket, completeMsgBufferBlocks.get(handledCount++));
+                            }
+                            break;
+                        }
+                        XBuffer reqBuffer = completeMsgBufferBlocks.get(handledCount++);
+                        boolean traced = reqBuffer.traceFirstByteNanos != 0;
+                        long handleStartNanos = metrics != null || traced ? System.nanoTime() : 0;
+                        XBuffer respBuffer = handler.handle(reqBuffer);
+                        if (handleStartNanos != 0) {
+                            long handleEndNanos = System.nanoTime();
+                            if (metrics != null) {
+                                metrics.handleNanos.record(handleEndNanos - handleStartNanos);
+                                metrics.requests++;
+                            }
+                            if (traced && respBuffer != null) {
+                                respBuffer.traceHandled(reqBuffer, handleStartNanos, handleEndNanos);
+                            }
+                        }
+                        completeRequest(xSocket, reqBuffer, respBuffer);
+                    }
+                } finally {
+                    xSocket.dispatching = false;
+                    completeMsgBufferBlocks.subList(0, handledCount).clear();
+                }
+                if (/**等待Worker的请求过多 -> 暂停读取**/xSocket.workerRequest != null
+                        && completeMsgBufferBlocks.size() >= Container.WORKER_MAX_PENDING_REQUESTS
+                        && (xSocket.readSuspendReasons & XSocket.READ_SUSPENDED_BY_WORKER) == 0) {
+                    xSocket.suspendRead(XSocket.READ_SUSPENDED_BY_WORKER);
+                }
+            }
+            if (/**对端关闭/连接上的最后一个请求 -> 不再监听读事件 处理完剩余的请求 & 等待在途响应写完后关闭**/
+                    (xSocket.endOfStreamReached || xSocket.closeRequested) && !xSocket.closing
+                    && (handler == null || completeMsgBufferBlocks.isEmpty())) {
+                xSocket.closing = true;
+                xSocket.disableInterest(SelectionKey.OP_READ);
+                closingSockets.add(xSocket);
+            } else if (/**对端关闭 但还有请求等待Worker -> 不再监听读事件(避免反复读到流末尾)**/xSocket.endOfStreamReached
+                    && xSocket.workerRequest != null) {
+                xSocket.disableInterest(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * XHandler处理完一个请求 -> 归还请求缓存 & 推送响应
+         */
+        private void completeRequest(XSocket xSocket, XBuffer reqBuffer, XBuffer respBuffer) {
+            if (reqBuffer.closeConnection) {
+                xSocket.closeRequested = true;
+            }
+            if (/**请求处理完毕 -> 归还缓存(XHandler可能直接复用请求作为响应)**/respBuffer != reqBuffer) {
+                reqBuffer.release();
+            }
+            if (respBuffer == null) return;
+            if (/**响应属于该连接 -> 直接推送**/respBuffer.xSocketId == 0 || respBuffer.xSocketId == xSocket.xSocketId) {
+                xSocket.enqueue(respBuffer);
+            } else {
+                offerOutbound(respBuffer);
+            }
+        }
+
+        /**
+         * 提交请求给Worker -> 请求缓存在Worker完成并交回该Reactor之前不会归还
+         */
+        private void submitToWorker(XSocket xSocket, XBuffer reqBuffer) {
+            if (xSocket.workerTask == null) {
+                xSocket.workerTask = xSocket::handleInWorker;
+            }
+            xSocket.workerRequest = reqBuffer;
+            try {
+                workerPool.execute(xSocket.workerTask);
+            } catch (RejectedExecutionException e) {
+                xSocket.workerRequest = null;
+                reqBuffer.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Worker完成的请求 -> 在Reactor线程中:
+         * 归还请求缓存(XBufferPool只由所属Reactor线程访问) & 推送响应到DefaultXWriter & 提交连接上的下一个请求
+         * 连接已关闭/XHandler抛出异常 -> 丢弃响应
+         */
+        private void completeWorkerRequests() {
+            XSocket xSocket = workerCompletions.poll();
+
+            while (xSocket != null) {
+                XBuffer reqBuffer = xSocket.workerRequest;
+                XBuffer respBuffer = xSocket.workerResponse;
+                RuntimeException failure = xSocket.workerFailure;
+                xSocket.workerRequest = null;
+                xSocket.workerResponse = null;
+                xSocket.workerFailure = null;
+                if (metrics != null) {
+                    metrics.handleNanos.record(xSocket.workerHandleEndNanos - xSocket.workerHandleStartNanos);
+                    metrics.requests++;
+                }
+
+                if (failure != null || !xSocket.socketChannel.isOpen()) {
+                    if (respBuffer != null && respBuffer != reqBuffer) respBuffer.release();
+                    reqBuffer.release();
+                    if (failure != null) {
+                        failure.printStackTrace();
+                        closeSocket(xSocket);
+                    }
+                } else {
+                    if (respBuffer != null && reqBuffer.traceFirstByteNanos != 0) {
+                        respBuffer.traceHandled(reqBuffer, xSocket.workerHandleStartNanos, xSocket.workerHandleEndNanos);
+                    }
+                    try {
+                        completeRequest(xSocket, reqBuffer, respBuffer);
+                        if ((xSocket.readSuspendReasons & XSocket.READ_SUSPENDED_BY_WORKER) != 0) {
+                            xSocket.resumeRead(XSocket.READ_SUSPENDED_BY_WORKER);
+                        } else {
+                            dispatchRequests(xSocket);
+                        }
+                        refreshTimeout(xSocket);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        closeSocket(xSocket);
+                    }
+                }
+                xSocket = workerCompletions.poll();
+            }
+        }
+
+        private void suspendForGlobalLimit(XSocket xSocket) {
+            XBackpressure.GLOBAL_SUSPENSIONS.increment();
+            xSocket.suspendRead(XSocket.READ_SUSPENDED_BY_GLOBAL_LIMIT);
+            globallySuspendedSockets.add(xSocket);
+        }
+
+        private void resumeGloballySuspendedSockets() {
+            if (globallySuspendedSockets.isEmpty() || !XBackpressure.isBelowGlobalResumeLevel()) return;
+            // resuming may dispatch pending requests and suspend (append) sockets again
+            int count = globallySuspendedSockets.size();
+            for (int i = 0; i < count; i++) {
+                globallySuspendedSockets.get(i).resumeRead(XSocket.READ_SUSPENDED_BY_GLOBAL_LIMIT);
+            }
+            globallySuspendedSockets.subList(0, count).clear();
+        }
+
+        private void refreshWritingSocketsInfo() {
+            XBuffer completeMsgBufferBlock = outboundQueue.poll();
+
+            while (completeMsgBufferBlock != null) {
+                XSocket associatedSocket = registry.get(completeMsgBufferBlock.xSocketId);
+                if (/**连接未关闭 否则丢弃响应**/associatedSocket != null) {
+                    associatedSocket.enqueue(completeMsgBufferBlock);
+                    refreshTimeout(associatedSocket);
+                } else {
+                    completeMsgBufferBlock.release();
+                }
+                completeMsgBufferBlock = outboundQueue.poll();
+            }
+        }
+
+        private void closeDrainedSockets() {
+            if (closingSockets.isEmpty()) return;
+            Iterator<XSocket> it = closingSockets.iterator();
+            while (it.hasNext()) {
+                XSocket xSocket = it.next();
+                if (/**在途响应写完 & 没有在Worker中的请求**/(xSocket.xWriter.isEmpty() && xSocket.workerRequest == null)
+                        || !xSocket.socketChannel.isOpen()) {
+                    closeSocket(xSocket);
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * 按连接当前的状态 重新计算超时期限并调度:
+         * A 有在途响应 -> 写停滞超时
+         * B 读缓存中有不完整的业务数据包 -> 读超时
+         * C 其他 -> 空闲超时
+         * 暂停读取/请求在Worker中时只有A 流式响应等待数据时没有超时
+         */
+        private void refreshTimeout(XSocket xSocket) {
+            if (!xSocket.socketChannel.isOpen()) return;
+            long deadline = deadlineOf(xSocket);
+            if (deadline == Long.MAX_VALUE) {
+                timingWheel.cancel(xSocket);
+            } else {
+                timingWheel.schedule(xSocket, deadline);
+            }
+        }
+
+        private long deadlineOf(XSocket xSocket) {
+            if (/**流式响应等待数据 -> 慢的是XStreamProducer 不计算超时**/xSocket.xWriter.isAwaitingTail()) {
+                return Long.MAX_VALUE;
+            }
+            if (!xSocket.xWriter.isEmpty()) {
+                return Container.WRITE_STALL_TIMEOUT_MILLIS > 0
+                        ? xSocket.lastWriteProgressMillis + Container.WRITE_STALL_TIMEOUT_MILLIS : Long.MAX_VALUE;
+            }
+            if (/**暂停读取/请求在Worker中 -> 慢的是XHandler 不计算读/空闲超时**/xSocket.readSuspendReasons != 0
+                    || xSocket.workerRequest != null) {
+                return Long.MAX_VALUE;
+            }
+            if (xSocket.partialReadSinceMillis != 0) {
+                return Container.READ_TIMEOUT_MILLIS > 0
+                        ? xSocket.partialReadSinceMillis + Container.READ_TIMEOUT_MILLIS : Long.MAX_VALUE;
+            }
+            return Container.IDLE_TIMEOUT_MILLIS > 0
+                    ? xSocket.lastActivityMillis + Container.IDLE_TIMEOUT_MILLIS : Long.MAX_VALUE;
+        }
+
+        /**
+         * XTimingWheel到期回调 -> 期限可能已被推迟(状态变化) 此时重新调度 否则关闭连接
+         */
+        void onTimeout(XSocket xSocket) {
+            long deadline = deadlineOf(xSocket);
+            if (deadline > now) {
+                if (deadline != Long.MAX_VALUE) timingWheel.schedule(xSocket, deadline);
+                return;
+            }
+            if (metrics != null) metrics.timeouts++;
+            closeSocket(xSocket);
+        }
+
+        /**
+         * 关闭连接 -> 从XSocket容器中移除 & 关闭SocketChannel(同时取消Selector上的注册) & 归还缓存
+         */
+        private void closeSocket(XSocket xSocket) {
+            timingWheel.cancel(xSocket);
+            if (registry.unregister(xSocket)) {
+                if (metrics != null) metrics.connectionsClosed++;
+                xSocket.readBuffer.release();
+                xSocket.writeBuffer.release();
+                xSocket.xWriter.releaseAll();
+            }
+            try {
+                xSocket.socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * 哈希时间轮(Hashed Timing Wheel) -> 每个XReactor一个 管理该Reactor所有连接的超时
+     * 时间被划分为TIMER_TICK_MILLIS的格 期限落在第n格的连接挂在slots[n & mask]的链表上
+     * 每次Reactor循环推进到当前时间 -> 只检查经过的格 格中期限未到(更晚的轮次)的连接原样保留
+     * <p>
+     * 链表节点直接存放在XSocket中(侵入式) -> 调度 & 取消都是O(1) 不产生任何对象
+     * 每个连接最多挂在一个格上 -> 10万+连接时的开销只和到期的连接数有关
+     * <p>
+     * 只由所属Reactor线程访问
+     */
+    public class XTimingWheel {
+        private final XSocket[] slots;
+        private final int mask;
+        private final long tickMillis;
+        /**
+         * 已经检查过的最后一格
+         */
+        private long currentTick;
+        private int size;
+
+        public XTimingWheel(long tickMillis, int wheelSize, long now) {
+            int capacity = 1;
+            while (capacity < wheelSize) capacity <<= 1;
+            this.slots = new XSocket[capacity];
+            this.mask = capacity - 1;
+            this.tickMillis = Math.max(1, tickMillis);
+            this.currentTick = now / this.tickMillis;
+        }
+
+        /**
+         * 调度(或重新调度)连接的超时期限
+         */
+        public void schedule(XSocket xSocket, long deadline) {
+            long deadlineTick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+            int slot = (int) (deadlineTick & mask);
+            xSocket.timerDeadline = deadline;
+            if (xSocket.timerSlot == slot) return;
+
+            cancel(xSocket);
+            xSocket.timerDeadline = deadline;
+            xSocket.timerSlot = slot;
+            xSocket.timerPrev = null;
+            xSocket.timerNext = slots[slot];
+            if (slots[slot] != null) slots[slot].timerPrev = xSocket;
+            slots[slot] = xSocket;
+            size++;
+        }
+
+        public void cancel(XSocket xSocket) {
+            if (xSocket.timerSlot == -1) return;
+            if (xSocket.timerPrev != null) {
+                xSocket.timerPrev.timerNext = xSocket.timerNext;
+            } else {
+                slots[xSocket.timerSlot] = xSocket.timerNext;
+            }
+            if (xSocket.timerNext != null) xSocket.timerNext.timerPrev = xSocket.timerPrev;
+            xSocket.timerPrev = null;
+            xSocket.timerNext = null;
+            xSocket.timerSlot = -1;
+            size--;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * 推进到now 对期限已到的连接回调{@link XReactor#onTimeout(XSocket)}
+         */
+        public void advance(long now, XReactor xReactor) {
+            long nowTick = now / tickMillis;
+            if (nowTick - currentTick > slots.length) {
+                /**落后超过一整圈 -> 每格只需检查一次**/
+                currentTick = nowTick - slots.length;
+            }
+            while (currentTick < nowTick) {
+                currentTick++;
+                XSocket xSocket = slots[(int) (currentTick & mask)];
+                while (xSocket != null) {
+                    XSocket next = xSocket.timerNext;
+                    if (xSocket.timerDeadline <= now) {
+                        cancel(xSocket);
+                        xReactor.onTimeout(xSocket);
+                    }
+                    xSocket = next;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 连接注册表 -> 每个XReactor一个 数组 + 空闲slot栈实现
+     * <p>
+     * 连接标识(xSocketId)是一个long句柄: [generation 32位 | reactorIndex 8位 | slot 24位]
+     * slot       -> XSocket在数组中的下标 查找只是一次数组访问 不计算hashCode 不产生对象
+     * generation -> 每次slot被复用时加一 连接关闭后仍携带旧句柄的响应会因generation不一致被识别(不会写给新连接)
+     * 关闭连接释放的slot放入空闲栈 优先复用 -> 数组大小只与同时在线的连接数有关
+     * <p>
+     * 0永远不是有效句柄(generation从1开始)
+     * 只由所属Reactor线程访问
+     */
+    public static class XSocketRegistry {
+        private static final int SLOT_BITS = 24;
+        private static final int MAX_SLOTS = 1 << SLOT_BITS;
+        private static final int REACTOR_INDEX_BITS = 8;
+        public static final int MAX_REACTORS = 1 << REACTOR_INDEX_BITS;
+
+        private final int reactorIndex;
+        private XSocket[] sockets;
+        private int[] generations;
+        /**
+         * 空闲slot栈
+         */
+        private int[] freeSlots;
+        private int freeCount;
+        /**
+         * 从未使用过的下一个slot
+         */
+        private int nextSlot;
+        private int size;
+
+        public XSocketRegistry(int reactorIndex, int initialCapacity) {
+            this.reactorIndex = reactorIndex;
+            int capacity = Math.max(16, initialCapacity);
+            this.sockets = new XSocket[capacity];
+            this.generations = new int[capacity];
+            this.freeSlots = new int[capacity];
+        }
+
+        /**
+         * @return 分配给该连接的句柄
+         */
+        public long register(XSocket xSocket) {
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                if (nextSlot == MAX_SLOTS) throw new IllegalStateException("too many connections");
+                if (nextSlot == sockets.length) grow();
+                slot = nextSlot++;
+            }
+            int generation = generations[slot] + 1;
+            if (generation == 0) generation = 1;
+            generations[slot] = generation;
+            sockets[slot] = xSocket;
+            size++;
+            return handleOf(generation, reactorIndex, slot);
+        }
+
+        /**
+         * @return 句柄对应的连接 已关闭/不属于该注册表 -> null
+         */
+        public XSocket get(long xSocketId) {
+            if (reactorIndexOf(xSocketId) != reactorIndex) return null;
+            int slot = slotOf(xSocketId);
+            if (slot >= nextSlot || generations[slot] != generationOf(xSocketId)) return null;
+            return sockets[slot];
+        }
+
+        /**
+         * @return 是否移除(重复移除 -> false)
+         */
+        public boolean unregister(XSocket xSocket) {
+            long xSocketId = xSocket.xSocketId;
+            if (get(xSocketId) != xSocket) return false;
+            int slot = slotOf(xSocketId);
+            sockets[slot] = null;
+            freeSlots[freeCount++] = slot;
+            size--;
+            return true;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 遍历所有连接 -> 只由所属Reactor线程调用
+         */
+        public void forEach(Consumer<XSocket> action) {
+            for (int slot = 0; slot < nextSlot; slot++) {
+                if (sockets[slot] != null) action.accept(sockets[slot]);
+            }
+        }
+
+        public static long handleOf(int generation, int reactorIndex, int slot) {
+            return ((long) generation << 32) | ((long) reactorIndex << SLOT_BITS) | slot;
+        }
+
+        public static int generationOf(long xSocketId) {
+            return (int) (xSocketId >>> 32);
+        }
+
+        public static int reactorIndexOf(long xSocketId) {
+            return (int) (xSocketId >>> SLOT_BITS) & (MAX_REACTORS - 1);
+        }
+
+        public static int slotOf(long xSocketId) {
+            return (int) xSocketId & (MAX_SLOTS - 1);
+        }
+
+        private void grow() {
+            int capacity = Math.min(sockets.length * 2, MAX_SLOTS);
+            sockets = Arrays.copyOf(sockets, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+    }
+
+    /**
+     * {@code XBuffer} 一款简单的缓存设计:
+     * 考虑点 -> A.弹性 B.性能
+     * 基于传输层的任何自定义协议下的业务数据包都可以用二进制数组表示(byte[] 代码层面的表示)
+     * NIO 的特征: 每次读取的数据不一定能decode成一个完整的业务数据包(粘包....拆包....)
+     * 使用每个channel维护 读 & 写对应的缓存的方式解决
+     * 读:配合特定协议下的业务数据包检查组件 -> 判断 & 反序列化业务数据包
+     * 写:配合记录写位置的指针 -> 下一次写事件时resume上次步骤
+     * <p>
+     * 转化:
+     * 支持byte[] -> XBuffer
+     * 支持ByteBuffer[] -> XBuffer
+     * <p>
+     * 关联:
+     * 一对读/写XBuffer可对应一个NIO Channel
+     * 一个XBuffer可对应一个或N(N可以不是整数)个特定协议下的完整业务数据包的二进制数据
+     * <p>
+     * 内存:
+     * 内部byte[]从所属的{@link XBufferPool}中获取 用完后通过{@link XBuffer#release()}归还
+     * 在Reactor线程中创建的XBuffer默认使用该Reactor的XBufferPool 其他线程中创建的XBuffer直接分配byte[]
+     */
+    public static class XBuffer {
+        /**
+         * 已归还/尚未分配时的内部byte[]
+         */
+        private static final byte[] EMPTY_CONTENT = new byte[0];
+
+        /**
+         * 客户端连接关联字段(连接句柄 见{@link XSocketRegistry}) 0 -> 未关联
+         */
+        public long xSocketId;
+        /**
+         * 客户端连接(读缓存 & XParser解析出的业务数据包携带) -> XHandler可以通过它暂停/恢复读取
+         */
+        public XSocket xSocket;
+        /**
+         * 数据载体 可能有冗余空间
+         */
+        public byte[] content;
+
+        /**
+         * 逻辑数据长度
+         */
+        public int length;
+
+        /**
+         * 内部byte[]的来源 -> null时直接分配 & 不归还
+         */
+        public XBufferPool pool;
+
+        /**
+         * 作为请求时: 该业务数据包是连接上的最后一个 -> 不再读取 对应响应写完后关闭连接(由XParser设置)
+         */
+        public boolean closeConnection;
+
+        /**
+         * 追踪时间戳(System.nanoTime 见{@link XTrace}) 0 -> 未追踪
+         * 由XParser解析出的请求携带 XHandler处理后复制到响应上 -> 不产生额外对象
+         * Selector返回 / 读到首字节 / 解析完成 / XHandler开始 & 结束 / 推送DefaultXWriter
+         */
+        public long traceSelectedNanos;
+        public long traceFirstByteNanos;
+        public long traceParsedNanos;
+        public long traceHandleStartNanos;
+        public long traceHandleEndNanos;
+        public long traceEnqueuedNanos;
+
+        /**
+         * 包装内部byte[]的ByteBuffer -> 内部byte[]不变时重复使用
+         */
+        private ByteBuffer view;
+
+        /**
+         * 构造函数 初始化数据逻辑长度指针 & 内部byte[]大小
+         */
+        public XBuffer() {
+            this(XBufferPool.current(), Container.X_BUFFER_INITIAL_SIZE);
+        }
+
+        /**
+         * @param pool        内部byte[]的来源
+         * @param initialSize 内部byte[]初始大小 0 -> 第一次缓存数据时才分配
+         */
+        public XBuffer(XBufferPool pool, int initialSize) {
+            this.pool = pool;
+            content = initialSize == 0 ? EMPTY_CONTENT : allocate(initialSize);
+            length = 0;
+        }
+
+        /**
+         * 直接包装已有的byte[] -> 不经过XBufferPool
+         */
+        public XBuffer(byte[] content, int length) {
+            this.content = content == null ? EMPTY_CONTENT : content;
+            this.length = length;
+        }
+
+        /**
+         * 使内部byte[]无冗余空间
+         * 此时内部成员length == content.length
+         */
+        public void trim() {
+            trim(0, length);
+        }
+
+        /**
+         * 以offset作为起始点裁剪内部byte[]
+         * 使用XBufferPool时内部byte[]为对应的大小分级 -> 可能仍有冗余空间
+         *
+         * @param offset 起始偏移量
+         * @param length 裁剪长度
+         */
+        public void trim(Integer offset, Integer length) {
+
+            byte[] desc = allocate(length);
+            System.arraycopy(content, offset, desc, 0, length);
+            free(content);
+            content = desc;
+            this.length = length;
+        }
+
+
+        /**
+         * 在原有的数据基础上缓存byte[]
+         * 内部byte[]不够时 -> 扩容为2倍
+         *
+         * @param src 缓存的byte[]
+         */
+        public void cache(byte[] src) {
+            int remainBytes = src.length;
+            if (length + remainBytes > content.length) {
+                expend2Double(length + remainBytes);
+            }
+
+            System.arraycopy(src, 0, content, length, remainBytes);
+            length += remainBytes;
+        }
+
+        /**
+         * 缓存src中[offset, offset + length)的数据
+         */
+        public void cache(byte[] src, int offset, int length) {
+            if (this.length + length > content.length) {
+                expend2Double(this.length + length);
+            }
+
+            System.arraycopy(src, offset, content, this.length, length);
+            this.length += length;
+        }
+
+        /**
+         * 缓存单个字节
+         */
+        public void cache(byte b) {
+            if (length == content.length) {
+                expend2Double(length + 1);
+            }
+            content[length++] = b;
+        }
+
+        /**
+         * 缓存ASCII字符串 -> 每个char直接作为一个byte写入 不经过字符集编码
+         */
+        public void cacheAscii(String src) {
+            int remainBytes = src.length();
+            if (length + remainBytes > content.length) {
+                expend2Double(length + remainBytes);
+            }
+            for (int i = 0; i < remainBytes; i++) {
+                content[length++] = (byte) src.charAt(i);
+            }
+        }
+
+        /**
+         * 以十进制缓存数字 -> 不产生String
+         */
+        public void cacheDecimal(long value) {
+            if (value < 0) {
+                if (value == Long.MIN_VALUE) {
+                    cacheAscii(Long.toString(value));
+                    return;
+                }
+                cache((byte) '-');
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest != 0; rest /= 10) digits++;
+            if (length + digits > content.length) {
+                expend2Double(length + digits);
+            }
+            for (int index = length + digits - 1; index >= length; index--) {
+                content[index] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+
+        /**
+         * 确保内部byte[]在逻辑数据之后至少还有additional字节的空闲空间 -> 之后的多次缓存不再扩容
+         */
+        public void reserve(int additional) {
+            if (length + additional > content.length) {
+                expend2Double(length + additional);
+            }
+        }
+
+        /**
+         * @see awesome.yk.all.in.one.SSNIOServer.XBuffer#cache(byte[])
+         * 重载实现
+         */
+        public void cache(ByteBuffer src) {
+            int remainBytes = src.remaining();
+            if (length + remainBytes > content.length) {
+                expend2Double(length + remainBytes);
+            }
+
+            src.get(content, length, remainBytes);
+            length += remainBytes;
+        }
+
+
+        /**
+         * 从Channel直接读取数据到内部byte[]的空闲空间(逻辑数据之后)
+         * 没有空闲空间时先扩容
+         *
+         * @return 读取的字节数 -1 -> 流末尾
+         */
+        public int readFrom(ReadableByteChannel src) throws IOException {
+            if (length == content.length) {
+                expend2Double(length + 1);
+            }
+            ByteBuffer dst = view();
+            dst.limit(content.length).position(length);
+
+            int bytesRead = src.read(dst);
+            if (bytesRead > 0) length += bytesRead;
+            return bytesRead;
+        }
+
+        /**
+         * @return 包装当前内部byte[]的ByteBuffer(position & limit 由调用方设置)
+         */
+        public ByteBuffer view() {
+            if (view == null || view.array() != content) {
+                view = ByteBuffer.wrap(content);
+            }
+            return view;
+        }
+
+        /**
+         * 逻辑数据长度 & 内部byte[] -> GC ROOT 不再指向原来维护的内部byte[]
+         * 原byte[]的所有权已经转移(e.g 交给了解析出的业务数据包) -> 不归还XBufferPool
+         */
+        public void reset() {
+            content = allocate(Container.X_BUFFER_INITIAL_SIZE);
+            length = 0;
+        }
+
+        /**
+         * 同{@link XBuffer#reset()} 但保留原byte[]中[offset, offset + length)的数据
+         */
+        public void reset(int offset, int length) {
+            byte[] desc = allocate(Math.max(length, Container.X_BUFFER_INITIAL_SIZE));
+            System.arraycopy(content, offset, desc, 0, length);
+            content = desc;
+            this.length = length;
+        }
+
+        /**
+         * 归还内部byte[]到XBufferPool
+         * 之后XBuffer不再持有数据 -> 再次缓存时重新分配
+         */
+        public void release() {
+            free(content);
+            content = EMPTY_CONTENT;
+            length = 0;
+        }
+
+        /**
+         * 作为响应时: 继承请求的追踪时间戳 & 记录XHandler的开始/结束
+         */
+        void traceHandled(XBuffer reqBuffer, long handleStartNanos, long handleEndNanos) {
+            traceSelectedNanos = reqBuffer.traceSelectedNanos;
+            traceFirstByteNanos = reqBuffer.traceFirstByteNanos;
+            traceParsedNanos = reqBuffer.traceParsedNanos;
+            traceHandleStartNanos = handleStartNanos;
+            traceHandleEndNanos = handleEndNanos;
+        }
+
+        /**
+         * 作为响应时 在content之后还需要写出的数据字节数(e.g 文件)
+         * 默认0 -> 响应只包含content中的数据
+         */
+        public long tailRemaining() {
+            return 0;
+        }
+
+        /**
+         * content全部写出后由DefaultXWriter调用 -> 尽可能多地写出content之后的数据
+         * 写不完时(内核发送缓存已满)下一次IO写事件继续
+         *
+         * @return 本次写出的字节数
+         */
+        public long writeTail(WritableByteChannel desc) throws IOException {
+            return 0;
+        }
+
+        /**
+         * content之后的数据暂时还没有准备好(e.g 流式响应等待数据) -> 不需要监听写事件
+         */
+        public boolean tailAwaiting() {
+            return false;
+        }
+
+        /**
+         * 扩展内部的byte[]为2倍(至少容纳minCapacity)
+         * 原byte[]归还XBufferPool
+         */
+        private void expend2Double(int minCapacity) {
+            int capacity = Math.max(content.length * 2, Container.X_BUFFER_INITIAL_SIZE);
+            while (capacity < minCapacity) {
+                capacity *= 2;
+            }
+            byte[] desc = allocate(capacity);
+
+            System.arraycopy(content, 0, desc, 0, length);
+            free(content);
+            content = desc;
+        }
+
+        private byte[] allocate(int minCapacity) {
+            return pool == null ? new byte[minCapacity] : pool.acquire(minCapacity);
+        }
+
+        private void free(byte[] src) {
+            if (pool != null) pool.release(src);
+        }
+
+    }
+
+
+    /**
+     * 以文件区间作为响应主体的XBuffer
+     * content -> 文件之前的数据(e.g HTTP响应行 & 首部)
+     * tail    -> 文件中[filePosition, filePosition + fileRemaining)的数据
+     * <p>
+     * DefaultXWriter写完content后通过FileChannel.transferTo(sendfile)把文件直接写入SocketChannel
+     * -> 文件数据既不进入堆内存 也不经过用户态拷贝
+     * 写出一部分时记录位置 下一次IO写事件继续
+     * release()时关闭FileChannel
+     */
+    public static class FileXBuffer extends XBuffer {
+        public FileChannel fileChannel;
+        public long filePosition;
+        public long fileRemaining;
+
+        public FileXBuffer(FileChannel fileChannel, long filePosition, long fileCount) {
+            super();
+            this.fileChannel = fileChannel;
+            this.filePosition = filePosition;
+            this.fileRemaining = fileCount;
+        }
+
+        @Override
+        public long tailRemaining() {
+            return fileRemaining;
+        }
+
+        @Override
+        public long writeTail(WritableByteChannel desc) throws IOException {
+            long totalBytesWritten = 0;
+            while (fileRemaining > 0) {
+                long bytesWritten = fileChannel.transferTo(filePosition, fileRemaining, desc);
+                if (bytesWritten <= 0) {
+                    if (/**文件在发送过程中被截短 -> 承诺的Content-Length永远无法写满 关闭连接(否则一直监听写事件空转)**/
+                            filePosition >= fileChannel.size()) {
+                        throw new IOException("file truncated: " + fileRemaining + " bytes missing");
+                    }
+                    break;
+                }
+                filePosition += bytesWritten;
+                fileRemaining -= bytesWritten;
+                totalBytesWritten += bytesWritten;
+            }
+            return totalBytesWritten;
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            fileRemaining = 0;
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * 流式响应的数据来源 -> 由XHandler实现 随StreamXBuffer一起返回
+     * 数据可以由任意线程准备 产生新数据后调用{@link StreamXBuffer#signal()}
+     */
+    public interface XStreamProducer {
+        /**
+         * Reactor线程在连接可写 且上一段数据已全部写出时调用 -> 内核发送缓存已满时不会调用(不会无限制地缓存数据)
+         *
+         * @param desc 空的XBuffer 本次产生的数据追加(cache)到这里 不追加任何数据 -> 暂时没有数据(等待signal())
+         * @return false -> 数据已全部产生(desc中的数据是最后一段)
+         */
+        boolean produce(XBuffer desc) throws IOException;
+
+        /**
+         * 响应结束(全部写出/连接关闭)后调用 -> 释放资源
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * 流式响应 -> 响应不需要在内存中一次生成(e.g 导出 长轮询 server-sent events)
+     * content -> 数据流之前的数据(e.g HTTP响应行 & 首部 "Transfer-Encoding: chunked")
+     * tail    -> 由XStreamProducer一段一段产生的数据
+     * <p>
+     * DefaultXWriter写完content后 每次上一段数据全部写出时才向XStreamProducer拉取下一段
+     * -> 内核发送缓存已满时停止拉取 每个连接同时只缓存一段数据
+     * XStreamProducer暂时没有数据时不再监听写事件 直到signal()
+     * <p>
+     * 分帧:
+     * chunked -> 每段数据加上HTTP chunked编码的长度行 & 结尾 最后写出"0\r\n\r\n"
+     * 否则    -> 原样写出(自定义协议自行分帧)
+     */
+    public static class StreamXBuffer extends XBuffer {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+        private static final byte[] CRLF_LAST_CHUNK = {'\r', '\n', '0', '\r', '\n', '\r', '\n'};
+
+        public final XStreamProducer producer;
+        public final boolean chunked;
+
+        /**
+         * 当前一段数据(从producer拉取)
+         */
+        private final XBuffer segment;
+        /**
+         * 当前一段数据的帧: [长度行, 数据, 结尾] 写出时gathering write(不需要的部分为空ByteBuffer)
+         */
+        private final ByteBuffer[] frame = new ByteBuffer[3];
+        private final ByteBuffer emptyFramePart = ByteBuffer.allocate(0);
+        private final byte[] sizeLine = new byte[18];
+        private boolean producerDone;
+        private boolean closed;
+        /**
+         * 上一次拉取没有得到数据 -> 等待signal()
+         */
+        private boolean awaitingProducer;
+        /**
+         * 响应所属的连接 -> 每次拉取前由Reactor线程写入 signal()在其他线程中读取
+         */
+        private volatile XSocket owner;
+
+        public StreamXBuffer(XStreamProducer producer, boolean chunked) {
+            super();
+            this.producer = producer;
+            this.chunked = chunked;
+            this.segment = new XBuffer(pool, 0);
+            Arrays.fill(frame, emptyFramePart);
+        }
+
+        /**
+         * XStreamProducer产生了新数据/数据已结束 -> 重新监听写事件
+         * 可由任意线程调用 响应尚未开始写出时调用无影响
+         */
+        public void signal() {
+            XSocket xSocket = owner;
+            if (xSocket != null) xSocket.resumeWrite();
+        }
+
+        @Override
+        public long tailRemaining() {
+            if (closed) return 0;
+            long frameRemaining = 0;
+            for (ByteBuffer buffer : frame) {
+                frameRemaining += buffer.remaining();
+            }
+            // length of the stream is unknown until the producer is done
+            return producerDone ? frameRemaining : frameRemaining + 1;
+        }
+
+        @Override
+        public boolean tailAwaiting() {
+            return awaitingProducer;
+        }
+
+        @Override
+        public long writeTail(WritableByteChannel desc) throws IOException {
+            long totalBytesWritten = 0;
+            while (!closed && totalBytesWritten < Container.MAX_WRITE_BYTES_PER_EVENT) {
+                if (frameRemaining()) {
+                    long bytesWritten = ((GatheringByteChannel) desc).write(frame, 0, frame.length);
+                    totalBytesWritten += bytesWritten;
+                    if (/**内核发送缓存已满**/frameRemaining()) break;
+                }
+                if (producerDone) {
+                    finish();
+                    break;
+                }
+                if (!pull()) break;
+            }
+            return totalBytesWritten;
+        }
+
+        /**
+         * 向producer拉取下一段数据并分帧
+         *
+         * @return 是否得到了需要写出的数据
+         */
+        private boolean pull() throws IOException {
+            owner = xSocket;
+            segment.length = 0;
+            producerDone = !producer.produce(segment);
+            int payloadLength = segment.length;
+            awaitingProducer = payloadLength == 0 && !producerDone;
+            if (awaitingProducer) return false;
+
+            ByteBuffer payload = segment.view();
+            payload.limit(payloadLength).position(0);
+            frame[1] = payload;
+            if (!chunked) {
+                return payloadLength > 0;
+            }
+            if (payloadLength == 0) {
+                frame[0] = emptyFramePart;
+                frame[2] = ByteBuffer.wrap(LAST_CHUNK);
+                return true;
+            }
+            int sizeLineStart = sizeLine.length - 2;
+            sizeLine[sizeLineStart] = '\r';
+            sizeLine[sizeLineStart + 1] = '\n';
+            for (int n = payloadLength; ; n >>>= 4) {
+                sizeLine[--sizeLineStart] = (byte) Character.forDigit(n & 0xf, 16);
+                if (n < 16) break;
+            }
+            frame[0] = ByteBuffer.wrap(sizeLine, sizeLineStart, sizeLine.length - sizeLineStart);
+            frame[2] = ByteBuffer.wrap(producerDone ? CRLF_LAST_CHUNK : CRLF);
+            return true;
+        }
+
+        private boolean frameRemaining() {
+            for (ByteBuffer buffer : frame) {
+                if (buffer.hasRemaining()) return true;
+            }
+            return false;
+        }
+
+        private void finish() {
+            if (closed) return;
+            closed = true;
+            Arrays.fill(frame, emptyFramePart);
+            segment.release();
+            producer.close();
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            finish();
+        }
+    }
+
+    /**
+     * 由多段共享byte[]拼接而成的响应(e.g 缓存中的响应 + 每个请求不同的首部)
+     * content为空 -> 各段作为tail 每次IO写事件一次gathering write写出 不拷贝
+     * 各段的byte[]在响应写完之前不能修改
+     */
+    public static class GatheringXBuffer extends XBuffer {
+        private final ByteBuffer[] parts;
+        private long partsRemaining;
+
+        public GatheringXBuffer(ByteBuffer... parts) {
+            super((XBufferPool) null, 0);
+            this.parts = parts;
+            for (ByteBuffer part : parts) {
+                partsRemaining += part.remaining();
+            }
+        }
+
+        @Override
+        public long tailRemaining() {
+            return partsRemaining;
+        }
+
+        @Override
+        public long writeTail(WritableByteChannel desc) throws IOException {
+            long totalBytesWritten = 0;
+            while (partsRemaining > 0) {
+                long bytesWritten = ((GatheringByteChannel) desc).write(parts, 0, parts.length);
+                if (/**内核发送缓存已满**/bytesWritten <= 0) break;
+                partsRemaining -= bytesWritten;
+                totalBytesWritten += bytesWritten;
+            }
+            return totalBytesWritten;
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            partsRemaining = 0;
+        }
+    }
+
+
+    /**
+     * XBuffer内部byte[]的池化分配器
+     * 避免每次 创建XBuffer/reset/扩容 都分配新的byte[] -> 降低GC压力
+     * <p>
+     * 按大小分级(size class): X_BUFFER_INITIAL_SIZE * 4^n (4KB 16KB 64KB 256KB 1MB ...)
+     * 每一级维护一个空闲byte[]栈 缓存的总字节数不超过X_BUFFER_POOL_MAX_BYTES_PER_CLASS
+     * 超过最大分级的byte[]直接分配且不回收
+     * <p>
+     * 每个XReactor(& Worker模式下的每个平台Worker线程)持有一个 -> 空闲栈只由所属线程访问 无需同步
+     * 其他线程调用acquire时退化为直接分配(按分级大小)
+     * 其他线程调用release时(e.g Worker线程归还请求 / Reactor线程归还Worker线程创建的响应) -> 放入该分级的有界归还队列
+     * 所属线程的空闲栈为空时再从归还队列中取
+     * <p>
+     * 统计:
+     * 命中率 = hits / (hits + misses)
+     * 在途数(outstanding) = 分配出去但尚未归还的byte[]数 -> 连接全部关闭后仍持续增长 说明存在泄漏
+     * 其他线程的分配/归还 & 丢弃数使用LongAdder
+     */
+    public static class XBufferPool {
+
+        private static final ThreadLocal<XBufferPool> CURRENT = new ThreadLocal<>();
+
+        /**
+         * @return 当前线程所属的XBufferPool(非Reactor线程 -> null)
+         */
+        public static XBufferPool current() {
+            return CURRENT.get();
+        }
+
+        private Thread owner;
+        private final byte[][][] freeStacks;
+        private final int[] freeCounts;
+        /**
+         * 其他线程归还的byte[](每个分级一个 容量同空闲栈)
+         */
+        private final Queue<byte[]>[] returnQueues;
+
+        /**
+         * 统计 -> 只由所属线程写入 其他线程读取时可能略有滞后
+         */
+        private long hits;
+        private long misses;
+        private long released;
+        /**
+         * 统计 -> 任意线程写入
+         */
+        private final LongAdder foreignAcquired = new LongAdder();
+        private final LongAdder foreignReleased = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public XBufferPool() {
+            int sizeClasses = Container.X_BUFFER_POOL_SIZE_CLASSES;
+            freeStacks = new byte[sizeClasses][][];
+            freeCounts = new int[sizeClasses];
+            returnQueues = new Queue[sizeClasses];
+            for (int i = 0; i < sizeClasses; i++) {
+                int maxFree = (int) Math.max(1, Container.X_BUFFER_POOL_MAX_BYTES_PER_CLASS / sizeOfClass(i));
+                freeStacks[i] = new byte[maxFree][];
+                returnQueues[i] = new ArrayBlockingQueue<>(maxFree);
+            }
+        }
+
+        /**
+         * 绑定当前线程为所属线程
+         */
+        public void bind() {
+            owner = Thread.currentThread();
+            CURRENT.set(this);
+        }
+
+        /**
+         * @return 至少minCapacity大小的byte[]
+         */
+        public byte[] acquire(int minCapacity) {
+            int sizeClass = sizeClassOf(minCapacity);
+            if (sizeClass == -1) {
+                return new byte[minCapacity];
+            }
+            if (Thread.currentThread() != owner) {
+                foreignAcquired.increment();
+                return new byte[sizeOfClass(sizeClass)];
+            }
+            if (freeCounts[sizeClass] > 0) {
+                hits++;
+                byte[][] stack = freeStacks[sizeClass];
+                byte[] src = stack[--freeCounts[sizeClass]];
+                stack[freeCounts[sizeClass]] = null;
+                return src;
+            }
+            byte[] returned = returnQueues[sizeClass].poll();
+            if (returned != null) {
+                hits++;
+                return returned;
+            }
+            misses++;
+            return new byte[sizeOfClass(sizeClass)];
+        }
+
+        /**
+         * 归还byte[] -> 大小不属于任何分级时丢弃 该分级已满时不保留
+         * 非所属线程 -> 放入归还队列(已满时不保留)
+         */
+        public void release(byte[] src) {
+            if (src.length == 0) return;
+            int sizeClass = sizeClassOf(src.length);
+            if (sizeClass == -1 || sizeOfClass(sizeClass) != src.length) {
+                dropped.increment();
+                return;
+            }
+            if (Thread.currentThread() != owner) {
+                foreignReleased.increment();
+                returnQueues[sizeClass].offer(src);
+                return;
+            }
+            released++;
+            if (freeCounts[sizeClass] < freeStacks[sizeClass].length) {
+                freeStacks[sizeClass][freeCounts[sizeClass]++] = src;
+            }
+        }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public long getOutstanding() {
+            return hits + misses + foreignAcquired.sum() - released - foreignReleased.sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "XBufferPool{hits=" + hits + ", misses=" + misses + ", hitRate=" + getHitRate()
+                    + ", outstanding=" + getOutstanding() + ", dropped=" + getDropped() + "}";
+        }
+
+        private static int sizeOfClass(int sizeClass) {
+            return Container.X_BUFFER_INITIAL_SIZE << (2 * sizeClass);
+        }
+
+        private static int sizeClassOf(int capacity) {
+            for (int i = 0; i < Container.X_BUFFER_POOL_SIZE_CLASSES; i++) {
+                if (capacity <= sizeOfClass(i)) return i;
+            }
+            return -1;
+        }
+    }
+
+
+    /**
+     * 端到端背压(backpressure)的全局状态 & 统计
+     * <p>
+     * 响应从不丢弃 -> 对端读得慢时 靠暂停读取(不再解析请求 不再产生响应)限制堆中在途响应的总量:
+     * A 单个连接: 在途响应超过WRITE_QUEUE_HIGH_WATERMARK -> 暂停读取该连接 写到WRITE_QUEUE_LOW_WATERMARK以下恢复
+     * B 全局: 所有连接的在途响应超过GLOBAL_WRITE_QUEUE_HIGH_WATERMARK -> 有IO读事件的连接全部暂停读取 降到低水位以下恢复
+     * 暂停期间数据留在内核接收缓存中 -> TCP流量控制最终让对端停止发送
+     */
+    public static class XBackpressure {
+        /**
+         * 所有连接在途响应的字节数(由各Reactor线程更新)
+         */
+        public static final AtomicLong QUEUED_BYTES = new AtomicLong();
+        /**
+         * 因单个连接超过高水位暂停读取的次数
+         */
+        public static final LongAdder SUSPENSIONS = new LongAdder();
+        /**
+         * 因全局超过高水位暂停读取的次数
+         */
+        public static final LongAdder GLOBAL_SUSPENSIONS = new LongAdder();
+
+        public static boolean isOverGlobalLimit() {
+            return QUEUED_BYTES.get() > Container.GLOBAL_WRITE_QUEUE_HIGH_WATERMARK;
+        }
+
+        public static boolean isBelowGlobalResumeLevel() {
+            return QUEUED_BYTES.get() <= Container.GLOBAL_WRITE_QUEUE_LOW_WATERMARK;
+        }
+
+        public static String stats() {
+            return "XBackpressure{queuedBytes=" + QUEUED_BYTES.get()
+                    + ", suspensions=" + SUSPENSIONS.sum()
+                    + ", globalSuspensions=" + GLOBAL_SUSPENSIONS.sum() + "}";
+        }
+    }
+
+    /**
+     * 运行时指标 -> Container.METRICS_ENABLED时由每个XReactor维护一个{@link XReactorMetrics}
+     * 关闭时XReactor.metrics为null -> 热点路径上只多一次null判断(不调用System.nanoTime())
+     * <p>
+     * 计数器按Reactor分开(只由所属Reactor线程写入 -> 没有竞争 不需要原子操作) 读取时汇总
+     * 其他线程写入的计数器(XAcceptor)使用LongAdder
+     * <p>
+     * 暴露方式:
+     * JMX -> SSNIOServer:type=Server 汇总 & SSNIOServer:type=Reactor,index=n 每个Reactor
+     * HTTP -> {@link XMetricsXHandler} 输出Prometheus文本格式 e.g router.get("/metrics", new XMetricsXHandler(server))
+     */
+    public static class XMetrics {
+        /**
+         * 接受的连接数(XAcceptor / REUSE_PORT模式下的XReactor)
+         */
+        public static final LongAdder ACCEPTED = new LongAdder();
+        /**
+         * 接受连接时的异常次数
+         */
+        public static final LongAdder ACCEPT_ERRORS = new LongAdder();
+        /**
+         * 所有XReactor的inboundQueue都已满 -> XAcceptor关闭的连接数
+         */
+        public static final LongAdder ACCEPT_REJECTED = new LongAdder();
+
+        /**
+         * 注册JMX MBean(同一JVM中多次启动时 已注册的保留)
+         */
+        static void registerMBeans(SSNIOServer server) {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            try {
+                register(mBeanServer, new XServerMetrics(server), new ObjectName("SSNIOServer:type=Server"));
+                for (XReactorMetrics metrics : server.getReactorMetrics()) {
+                    register(mBeanServer, metrics, new ObjectName("SSNIOServer:type=Reactor,index=" + metrics.reactorIndex));
+                }
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private static void register(MBeanServer mBeanServer, Object mBean, ObjectName name) throws JMException {
+            if (mBeanServer.isRegistered(name)) mBeanServer.unregisterMBean(name);
+            mBeanServer.registerMBean(mBean, name);
+        }
+    }
+
+    public interface XReactorMetricsMXBean {
+        long getLoopIterations();
+
+        long getBytesRead();
+
+        long getBytesWritten();
+
+        long getRequests();
+
+        long getConnectionsOpened();
+
+        long getConnectionsClosed();
+
+        long getTimeouts();
+
+        int getOpenConnections();
+
+        int getInboundQueueDepth();
+
+        int getOutboundQueueDepth();
+
+        int getTaskQueueDepth();
+
+        long getWriteQueueResponses();
+
+        long getWriteQueueMaxResponses();
+
+        long getWriteQueueBytes();
+
+        double getParseP50Micros();
+
+        double getParseP99Micros();
+
+        double getHandleP50Micros();
+
+        double getHandleP99Micros();
+    }
+
+    public interface XServerMetricsMXBean {
+        long getAcceptedConnections();
+
+        long getAcceptErrors();
+
+        long getAcceptRejected();
+
+        int getOpenConnections();
+
+        long getBytesRead();
+
+        long getBytesWritten();
+
+        long getRequests();
+
+        long getLoopIterations();
+
+        long getWriteQueueBytes();
+
+        long getBackpressureSuspensions();
+    }
+
+    /**
+     * 一个XReactor的指标
+     * 计数器 & 直方图只由所属Reactor线程写入 其他线程读取计数器时可能略有滞后
+     * 需要遍历连接的指标(写队列深度) & 直方图 -> Reactor线程每隔METRICS_PUBLISH_INTERVAL_MILLIS发布一份快照
+     */
+    public static class XReactorMetrics implements XReactorMetricsMXBean {
+        final int reactorIndex;
+        private final XReactor xReactor;
+
+        long loopIterations;
+        long bytesRead;
+        long bytesWritten;
+        long requests;
+        long connectionsOpened;
+        long connectionsClosed;
+        long timeouts;
+        /**
+         * xParser.parse() / handler.handle() 耗时(ns)
+         */
+        final XHistogram parseNanos = new XHistogram();
+        final XHistogram handleNanos = new XHistogram();
+
+        private long nextPublishMillis;
+        private volatile Snapshot snapshot = new Snapshot();
+
+        XReactorMetrics(XReactor xReactor) {
+            this.xReactor = xReactor;
+            this.reactorIndex = xReactor.index;
+        }
+
+        /**
+         * 由Reactor线程在每次循环结束时调用
+         */
+        void maybePublish(long now) {
+            if (now < nextPublishMillis) return;
+            nextPublishMillis = now + Container.METRICS_PUBLISH_INTERVAL_MILLIS;
+
+            Snapshot published = new Snapshot();
+            xReactor.registry.forEach(xSocket -> {
+                long queued = xSocket.xWriter.getQueuedCount();
+                published.writeQueueResponses += queued;
+                published.writeQueueMaxResponses = Math.max(published.writeQueueMaxResponses, queued);
+                published.writeQueueBytes += xSocket.xWriter.getQueuedBytes();
+            });
+            published.parseNanos = parseNanos.copy();
+            published.handleNanos = handleNanos.copy();
+            snapshot = published;
+        }
+
+        /**
+         * @return 最近一次发布的快照(不会被修改)
+         */
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public int getReactorIndex() {
+            return reactorIndex;
+        }
+
+        @Override
+        public long getLoopIterations() {
+            return loopIterations;
+        }
+
+        @Override
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public long getRequests() {
+            return requests;
+        }
+
+        @Override
+        public long getConnectionsOpened() {
+            return connectionsOpened;
+        }
+
+        @Override
+        public long getConnectionsClosed() {
+            return connectionsClosed;
+        }
+
+        @Override
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        @Override
+        public int getOpenConnections() {
+            return xReactor.registry.size();
+        }
+
+        @Override
+        public int getInboundQueueDepth() {
+            return xReactor.inboundQueue.size();
+        }
+
+        @Override
+        public int getOutboundQueueDepth() {
+            return xReactor.outboundQueue.size();
+        }
+
+        @Override
+        public int getTaskQueueDepth() {
+            return xReactor.taskQueue.size();
+        }
+
+        @Override
+        public long getWriteQueueResponses() {
+            return snapshot.writeQueueResponses;
+        }
+
+        @Override
+        public long getWriteQueueMaxResponses() {
+            return snapshot.writeQueueMaxResponses;
+        }
+
+        @Override
+        public long getWriteQueueBytes() {
+            return snapshot.writeQueueBytes;
+        }
+
+        @Override
+        public double getParseP50Micros() {
+            return snapshot.parseNanos.percentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getParseP99Micros() {
+            return snapshot.parseNanos.percentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getHandleP50Micros() {
+            return snapshot.handleNanos.percentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getHandleP99Micros() {
+            return snapshot.handleNanos.percentile(99) / 1000.0;
+        }
+
+        /**
+         * 由Reactor线程发布的快照
+         */
+        public static class Snapshot {
+            public long writeQueueResponses;
+            public long writeQueueMaxResponses;
+            public long writeQueueBytes;
+            public XHistogram parseNanos = new XHistogram();
+            public XHistogram handleNanos = new XHistogram();
+        }
+    }
+
+    /**
+     * 所有XReactor的汇总
+     */
+    public static class XServerMetrics implements XServerMetricsMXBean {
+        private final SSNIOServer server;
+
+        public XServerMetrics(SSNIOServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public long getAcceptedConnections() {
+            return XMetrics.ACCEPTED.sum();
+        }
+
+        @Override
+        public long getAcceptErrors() {
+            return XMetrics.ACCEPT_ERRORS.sum();
+        }
+
+        @Override
+        public long getAcceptRejected() {
+            return XMetrics.ACCEPT_REJECTED.sum();
+        }
+
+        @Override
+        public int getOpenConnections() {
+            int sum = 0;
+            for (XReactorMetrics metrics : server.getReactorMetrics()) sum += metrics.getOpenConnections();
+            return sum;
+        }
+
+        @Override
+        public long getBytesRead() {
+            long sum = 0;
+            for (XReactorMetrics metrics : server.getReactorMetrics()) sum += metrics.bytesRead;
+            return sum;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            long sum = 0;
+            for (XReactorMetrics metrics : server.getReactorMetrics()) sum += metrics.bytesWritten;
+            return sum;
+        }
+
+        @Override
+        public long getRequests() {
+            long sum = 0;
+            for (XReactorMetrics metrics : server.getReactorMetrics()) sum += metrics.requests;
+            return sum;
+        }
+
+        @Override
+        public long getLoopIterations() {
+            long sum = 0;
+            for (XReactorMetrics metrics : server.getReactorMetrics()) sum += metrics.loopIterations;
+            return sum;
+        }
+
+        @Override
+        public long getWriteQueueBytes() {
+            return XBackpressure.QUEUED_BYTES.get();
+        }
+
+        @Override
+        public long getBackpressureSuspensions() {
+            return XBackpressure.SUSPENSIONS.sum() + XBackpressure.GLOBAL_SUSPENSIONS.sum();
+        }
+    }
+
+    /**
+     * 以Prometheus文本格式(0.0.4)输出指标的XHandler
+     * 指标未开启时只输出XAcceptor & 背压相关的全局计数
+     */
+    public static class XMetricsXHandler implements XHandler {
+        private static final byte[] CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8".getBytes(StandardCharsets.US_ASCII);
+
+        private final SSNIOServer server;
+
+        public XMetricsXHandler(SSNIOServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public XBuffer handle(XBuffer reqBuffer) {
+            return HttpResponse.of((HttpRequest) reqBuffer, 200)
+                    .header(HttpResponse.CONTENT_TYPE, CONTENT_TYPE)
+                    .header(HttpResponse.CACHE_CONTROL, HttpResponse.NO_CACHE)
+                    .body(render().getBytes(StandardCharsets.UTF_8));
+        }
+
+        public String render() {
+            StringBuilder out = new StringBuilder(4096);
+            metric(out, "ssnio_connections_accepted_total", "counter", "Connections accepted");
+            out.append("ssnio_connections_accepted_total ").append(XMetrics.ACCEPTED.sum()).append('\n');
+            metric(out, "ssnio_accept_errors_total", "counter", "Errors while accepting connections");
+            out.append("ssnio_accept_errors_total ").append(XMetrics.ACCEPT_ERRORS.sum()).append('\n');
+            metric(out, "ssnio_accept_rejected_total", "counter", "Connections closed because every reactor inbound queue was full");
+            out.append("ssnio_accept_rejected_total ").append(XMetrics.ACCEPT_REJECTED.sum()).append('\n');
+            metric(out, "ssnio_write_queue_global_bytes", "gauge", "Bytes queued for writing on all connections");
+            out.append("ssnio_write_queue_global_bytes ").append(XBackpressure.QUEUED_BYTES.get()).append('\n');
+            metric(out, "ssnio_backpressure_suspensions_total", "counter", "Read suspensions caused by write queue watermarks");
+            out.append("ssnio_backpressure_suspensions_total{scope=\"connection\"} ").append(XBackpressure.SUSPENSIONS.sum()).append('\n');
+            out.append("ssnio_backpressure_suspensions_total{scope=\"global\"} ").append(XBackpressure.GLOBAL_SUSPENSIONS.sum()).append('\n');
+
+            List<XReactorMetrics> reactors = server.getReactorMetrics();
+            if (reactors.isEmpty()) return out.toString();
+
+            counter(out, reactors, "ssnio_loop_iterations_total", "Event loop iterations", m -> m.loopIterations);
+            counter(out, reactors, "ssnio_bytes_read_total", "Bytes read from client connections", m -> m.bytesRead);
+            counter(out, reactors, "ssnio_bytes_written_total", "Bytes written to client connections", m -> m.bytesWritten);
+            counter(out, reactors, "ssnio_requests_total", "Messages passed to the XHandler", m -> m.requests);
+            counter(out, reactors, "ssnio_connections_opened_total", "Connections registered on the reactor", m -> m.connectionsOpened);
+            counter(out, reactors, "ssnio_connections_closed_total", "Connections closed by the reactor", m -> m.connectionsClosed);
+            counter(out, reactors, "ssnio_timeouts_total", "Connections closed by idle/read/write timeouts", m -> m.timeouts);
+            gauge(out, reactors, "ssnio_connections_open", "Open connections", XReactorMetrics::getOpenConnections);
+            gauge(out, reactors, "ssnio_inbound_queue_depth", "Accepted connections waiting for registration", XReactorMetrics::getInboundQueueDepth);
+            gauge(out, reactors, "ssnio_outbound_queue_depth", "Responses from other threads waiting for the reactor", XReactorMetrics::getOutboundQueueDepth);
+            gauge(out, reactors, "ssnio_task_queue_depth", "Tasks from other threads waiting for the reactor", XReactorMetrics::getTaskQueueDepth);
+            gauge(out, reactors, "ssnio_write_queue_responses", "Responses queued in DefaultXWriters", XReactorMetrics::getWriteQueueResponses);
+            gauge(out, reactors, "ssnio_write_queue_max_responses", "Longest DefaultXWriter queue", XReactorMetrics::getWriteQueueMaxResponses);
+            gauge(out, reactors, "ssnio_write_queue_bytes", "Bytes queued in DefaultXWriters", XReactorMetrics::getWriteQueueBytes);
+            summary(out, reactors, "ssnio_parse_seconds", "Time spent in XParser.parse", true);
+            summary(out, reactors, "ssnio_handle_seconds", "Time spent in XHandler.handle", false);
+            return out.toString();
+        }
+
+        private static void metric(StringBuilder out, String name, String type, String help) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        private static void counter(StringBuilder out, List<XReactorMetrics> reactors, String name, String help,
+                                    java.util.function.ToLongFunction<XReactorMetrics> value) {
+            metric(out, name, "counter", help);
+            for (XReactorMetrics m : reactors) {
+                out.append(name).append("{reactor=\"").append(m.reactorIndex).append("\"} ").append(value.applyAsLong(m)).append('\n');
+            }
+        }
+
+        private static void gauge(StringBuilder out, List<XReactorMetrics> reactors, String name, String help,
+                                  java.util.function.ToLongFunction<XReactorMetrics> value) {
+            metric(out, name, "gauge", help);
+            for (XReactorMetrics m : reactors) {
+                out.append(name).append("{reactor=\"").append(m.reactorIndex).append("\"} ").append(value.applyAsLong(m)).append('\n');
+            }
+        }
+
+        private static void summary(StringBuilder out, List<XReactorMetrics> reactors, String name, String help, boolean parse) {
+            metric(out, name, "summary", help);
+            for (XReactorMetrics m : reactors) {
+                XHistogram histogram = parse ? m.getSnapshot().parseNanos : m.getSnapshot().handleNanos;
+                String labels = "reactor=\"" + m.reactorIndex + "\"";
+                for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                    out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(histogram.percentile(quantile * 100) / 1e9).append('\n');
+                }
+                out.append(name).append("_sum{").append(labels).append("} ").append(histogram.getSum() / 1e9).append('\n');
+                out.append(name).append("_count{").append(labels).append("} ").append(histogram.getTotalCount()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * 请求耗时分段追踪 -> Container.TRACE_ENABLED时开启 用于把尾延迟归到具体阶段
+     * 时间戳(System.nanoTime)直接记录在请求/响应的XBuffer上 -> 不产生额外对象:
+     * Selector返回 -> 读到首字节 -> 解析完成 -> XHandler开始 -> XHandler结束 -> 推送DefaultXWriter -> 写出最后一个字节
+     * 对应的阶段:
+     * select   -> Selector返回后 等待轮到该连接(同一次循环中排在前面的连接)
+     * read     -> 读到首字节 -> 解析完成(包括等待业务数据包的剩余部分到达)
+     * queue    -> 解析完成 -> XHandler开始(连接上前面的请求 / 背压暂停)
+     * handle   -> XHandler
+     * outbound -> XHandler结束 -> 推送所属连接的DefaultXWriter(其他线程产生的响应在OUTBOUND_QUEUE中等待)
+     * write    -> 推送DefaultXWriter -> 写出最后一个字节(排在前面的响应 & 内核发送缓存已满时的部分写)
+     * <p>
+     * 每个Reactor每TRACE_SAMPLE_RATE个业务数据包追踪一个 响应写完时交给{@link #complete}
+     * 每个周期(TRACE_INTERVAL_MILLIS)只保留最慢的TRACE_SLOWEST_N个 -> 记录槽位预先分配
+     * 比当前保留的最慢N个都快的请求只读一次volatile 不加锁
+     * 查看: {@link #slowest()} / {@link #report()} / HTTP {@link XTraceXHandler}
+     */
+    public static class XTrace {
+        public static final String[] PHASES = {"select", "read", "queue", "handle", "outbound", "write"};
+
+        private static final Object LOCK = new Object();
+
+        /**
+         * 当前周期 & 上一个已结束周期的记录槽位 -> 周期结束时交换
+         */
+        private static Record[] current = newRecords();
+        private static Record[] previous = newRecords();
+        private static int currentCount;
+        private static int previousCount;
+        private static long previousEndMillis;
+
+        /**
+         * 当前周期结束时间(纳秒) 0 -> 还没有开始
+         */
+        private static volatile long intervalEndNanos;
+
+        /**
+         * 当前保留的记录已满时其中最快的耗时 -> 不超过它的请求直接忽略
+         */
+        private static volatile long thresholdNanos;
+
+        /**
+         * 一个被追踪请求的时间戳(纳秒) & 响应信息
+         */
+        public static class Record {
+            public long xSocketId;
+            public int responseBytes;
+            public long selectedNanos;
+            public long firstByteNanos;
+            public long parsedNanos;
+            public long handleStartNanos;
+            public long handleEndNanos;
+            public long enqueuedNanos;
+            public long writtenNanos;
+
+            void set(XBuffer respBuffer, long writtenNanos) {
+                xSocketId = respBuffer.xSocketId;
+                responseBytes = respBuffer.length;
+                selectedNanos = respBuffer.traceSelectedNanos;
+                firstByteNanos = respBuffer.traceFirstByteNanos;
+                parsedNanos = respBuffer.traceParsedNanos;
+                handleStartNanos = respBuffer.traceHandleStartNanos;
+                handleEndNanos = respBuffer.traceHandleEndNanos;
+                enqueuedNanos = respBuffer.traceEnqueuedNanos;
+                this.writtenNanos = writtenNanos;
+            }
+
+            Record copy() {
+                Record record = new Record();
+                record.xSocketId = xSocketId;
+                record.responseBytes = responseBytes;
+                record.selectedNanos = selectedNanos;
+                record.firstByteNanos = firstByteNanos;
+                record.parsedNanos = parsedNanos;
+                record.handleStartNanos = handleStartNanos;
+                record.handleEndNanos = handleEndNanos;
+                record.enqueuedNanos = enqueuedNanos;
+                record.writtenNanos = writtenNanos;
+                return record;
+            }
+
+            /**
+             * Selector返回 -> 写出最后一个字节
+             */
+            public long getTotalNanos() {
+                return writtenNanos - selectedNanos;
+            }
+
+            /**
+             * @param phase {@link #PHASES}中的下标
+             */
+            public long getPhaseNanos(int phase) {
+                switch (phase) {
+                    case 0:
+                        return firstByteNanos - selectedNanos;
+                    case 1:
+                        return parsedNanos - firstByteNanos;
+                    case 2:
+                        return handleStartNanos - parsedNanos;
+                    case 3:
+                        return handleEndNanos - handleStartNanos;
+                    case 4:
+                        return enqueuedNanos - handleEndNanos;
+                    case 5:
+                        return writtenNanos - enqueuedNanos;
+                    default:
+                        throw new IllegalArgumentException("phase: " + phase);
+                }
+            }
+
+            @Override
+            public String toString() {
+                StringBuilder out = new StringBuilder(128);
+                out.append(String.format("total=%.3fms", getTotalNanos() / 1e6));
+                for (int i = 0; i < PHASES.length; i++) {
+                    out.append(' ').append(PHASES[i]).append('=').append(String.format("%.3fms", getPhaseNanos(i) / 1e6));
+                }
+                return out.append(" socket=").append(Long.toHexString(xSocketId)).append(" bytes=").append(responseBytes).toString();
+            }
+        }
+
+        private static Record[] newRecords() {
+            Record[] records = new Record[Math.max(1, Container.TRACE_SLOWEST_N)];
+            for (int i = 0; i < records.length; i++) records[i] = new Record();
+            return records;
+        }
+
+        /**
+         * 被追踪的响应写完最后一个字节时由DefaultXWriter调用(Reactor线程)
+         */
+        static void complete(XBuffer respBuffer, long writtenNanos) {
+            long totalNanos = writtenNanos - respBuffer.traceSelectedNanos;
+            if (/**比保留的都快 & 周期未结束**/totalNanos <= thresholdNanos && writtenNanos - intervalEndNanos < 0) return;
+            synchronized (LOCK) {
+                rotate(writtenNanos);
+                Record slot;
+                if (currentCount < current.length) {
+                    slot = current[currentCount++];
+                } else {
+                    slot = current[0];
+                    for (Record record : current) {
+                        if (record.getTotalNanos() < slot.getTotalNanos()) slot = record;
+                    }
+                    if (slot.getTotalNanos() >= totalNanos) return;
+                }
+                slot.set(respBuffer, writtenNanos);
+                if (currentCount == current.length) {
+                    long fastest = Long.MAX_VALUE;
+                    for (Record record : current) fastest = Math.min(fastest, record.getTotalNanos());
+                    thresholdNanos = fastest;
+                }
+            }
+        }
+
+        /**
+         * 当前周期已结束 -> 作为上一个周期保留 开始新的周期
+         * 调用方持有LOCK
+         */
+        private static void rotate(long nowNanos) {
+            long endNanos = intervalEndNanos;
+            if (endNanos != 0 && nowNanos - endNanos < 0) return;
+            long intervalNanos = Math.max(1, Container.TRACE_INTERVAL_MILLIS) * 1_000_000L;
+            if (endNanos != 0) {
+                Record[] swap = previous;
+                previous = current;
+                current = swap;
+                previousCount = nowNanos - endNanos < intervalNanos ? currentCount : /**中间有完整的空周期**/0;
+                previousEndMillis = System.currentTimeMillis() - (nowNanos - endNanos) / 1_000_000L;
+            }
+            currentCount = 0;
+            thresholdNanos = 0;
+            intervalEndNanos = nowNanos + intervalNanos;
+        }
+
+        /**
+         * @return 上一个已结束周期中最慢的请求(按总耗时降序)
+         */
+        public static List<Record> slowest() {
+            synchronized (LOCK) {
+                rotate(System.nanoTime());
+                List<Record> records = new ArrayList<>(previousCount);
+                for (int i = 0; i < previousCount; i++) records.add(previous[i].copy());
+                records.sort((a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+                return records;
+            }
+        }
+
+        /**
+         * @return 上一个已结束周期的时间(毫秒) 0 -> 还没有
+         */
+        public static long getPreviousEndMillis() {
+            synchronized (LOCK) {
+                rotate(System.nanoTime());
+                return previousEndMillis;
+            }
+        }
+
+        /**
+         * 最慢请求的文本报告 -> 每行一个请求 & 最后一行是各阶段耗时之和的占比
+         */
+        public static String report() {
+            List<Record> records = slowest();
+            long endMillis = getPreviousEndMillis();
+            StringBuilder out = new StringBuilder(256 + records.size() * 160);
+            out.append("slowest ").append(records.size()).append(" traced requests in the ")
+                    .append(Container.TRACE_INTERVAL_MILLIS).append("ms interval ending ")
+                    .append(endMillis == 0 ? "-" : HttpUtil.HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(endMillis))).append('\n');
+            if (records.isEmpty()) return out.toString();
+
+            long[] phaseSums = new long[PHASES.length];
+            long totalSum = 0;
+            for (Record record : records) {
+                out.append(record).append('\n');
+                for (int i = 0; i < PHASES.length; i++) phaseSums[i] += record.getPhaseNanos(i);
+                totalSum += record.getTotalNanos();
+            }
+            out.append("share");
+            for (int i = 0; i < PHASES.length; i++) {
+                out.append(' ').append(PHASES[i]).append('=')
+                        .append(String.format("%.1f%%", totalSum == 0 ? 0.0 : phaseSums[i] * 100.0 / totalSum));
+            }
+            return out.append('\n').toString();
+        }
+    }
+
+    /**
+     * HTTP 输出{@link XTrace#report()} e.g router.get("/traces", new XTraceXHandler())
+     */
+    public static class XTraceXHandler implements XHandler {
+        @Override
+        public XBuffer handle(XBuffer reqBuffer) {
+            return HttpResponse.of((HttpRequest) reqBuffer, 200)
+                    .header(HttpResponse.CONTENT_TYPE, HttpResponse.TEXT_PLAIN)
+                    .header(HttpResponse.CACHE_CONTROL, HttpResponse.NO_CACHE)
+                    .body(XTrace.report());
+        }
+    }
+
+
+
+    /**
+     * 关联 -> 一个维护NIO连接的 SocketChannel
+     * 通用的 跨协议的Writer
+     * 响应用的业务数据包对应一个弱类型XBuffer对象
+     * <p>
+     * 写操作使用gathering write(SocketChannel.write(ByteBuffer[])):
+     * 在途响应 + 队列中的后续响应 -> 一次系统调用写出 -> 没有过渡缓存 没有拷贝
+     * 响应在content之后还有数据时(见{@link XBuffer#tailRemaining()}) -> 写完content后委派响应自己写出(e.g FileXBuffer的transferTo)
+     */
+    public class DefaultXWriter {
+
+        /**
+         * 在途用于响应的业务数据包队列(不包括inFlyRespBuffer)
+         * 只由所属Reactor线程访问
+         */
+        private Deque<XBuffer> respQueue;
+
+        /**
+         * 当前在途用于响应的业务数据包
+         */
+        private XBuffer inFlyRespBuffer;
+
+        /**
+         * 记录当前在途用于响应的业务数据包
+         * 在累计的IO 写事件中
+         * 写了多少数据的偏移量指针
+         */
+        private int processingRespOffset;
+
+        /**
+         * 一次gathering write使用的ByteBuffer数组 -> 重复使用
+         */
+        private final ByteBuffer[] gatheringBuffers;
+
+        /**
+         * gatheringBuffers中本次有效的个数
+         */
+        private int gatheredCount;
+
+        /**
+         * 在途响应中尚未写出的content字节数(content之后的文件/流数据不在堆中 不计算)
+         */
+        private long queuedBytes;
+
+        public DefaultXWriter() {
+            respQueue = new ArrayDeque<>();
+            processingRespOffset = 0;
+            gatheringBuffers = new ByteBuffer[Container.MAX_GATHERING_BUFFERS];
+        }
+
+
+        /**
+         * NIO 写带来不确定性:
+         * 1. 写了完整的业务数据包 -> 归还缓存 Queue中取下一个业务数据包做为下一个在途响应
+         * 2. 写了部分业务数据包 -> 记录位置...下次对应写IO事件时候Resume
+         *
+         * @param desc 维护客户端连接
+         *             <p>
+         *             简化设计 -> 响应用的自定义协议下的业务数据包统一用{@code XBuffer}表示
+         *             对应连接下 -> 一次IO 写事件触发一次该函数
+         *             每次系统调用写出 在途响应的剩余部分 + 队列中最多(MAX_GATHERING_BUFFERS - 1)个后续响应
+         *             重复写 -> 直到全部写完 或SocketChannel无法写入更多数据(内核发送缓存已满)
+         * @return 本次写出的字节数
+         */
+        public long write(SocketChannel desc) throws IOException {
+            long totalBytesWritten = 0;
+
+            while (inFlyRespBuffer != null) {
+                if (/**content已写完 继续写content之后的数据**/processingRespOffset == inFlyRespBuffer.length
+                        && inFlyRespBuffer.tailRemaining() > 0) {
+                    totalBytesWritten += inFlyRespBuffer.writeTail(desc);
+                    if (/**内核发送缓存已满 -> 等待下一次IO写事件**/inFlyRespBuffer.tailRemaining() > 0) {
+                        break;
+                    }
+                    pollNext();
+                    continue;
+                }
+
+                long bytesToWrite = gather();
+                long bytesWritten = bytesToWrite == 0 ? 0 : desc.write(gatheringBuffers, 0, gatheredCount);
+                Arrays.fill(gatheringBuffers, 0, gatheredCount, null);
+                advance(bytesWritten);
+                totalBytesWritten += bytesWritten;
+
+                if (/**内核发送缓存已满 -> 等待下一次IO写事件**/bytesWritten < bytesToWrite) {
+                    break;
+                }
+            }
+            return totalBytesWritten;
+        }
+
+        /**
+         * @param xBuffer 一个完整的响应业务数据包对应的缓存
+         *                {@code DefaultXWriter}维护对应SocketChannel下的所有在途 用于响应的业务数据包
+         */
+        public void enqueue(XBuffer xBuffer) {
+            queuedBytes += xBuffer.length;
+            XBackpressure.QUEUED_BYTES.addAndGet(xBuffer.length);
+            if (inFlyRespBuffer == null) {
+                inFlyRespBuffer = xBuffer;
+            } else {
+                respQueue.offer(xBuffer);
+            }
+        }
+
+        /**
+         * @return 是否有在途 用于响应的业务数据包
+         */
+        public boolean isEmpty() {
+            return inFlyRespBuffer == null;
+        }
+
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        /**
+         * @return 在途响应数(包括正在写的)
+         */
+        public int getQueuedCount() {
+            return inFlyRespBuffer == null ? 0 : respQueue.size() + 1;
+        }
+
+        /**
+         * @return 在途响应的content已写完 content之后的数据还没有准备好 -> 暂时没有可写的数据
+         */
+        public boolean isAwaitingTail() {
+            return inFlyRespBuffer != null
+                    && processingRespOffset == inFlyRespBuffer.length
+                    && inFlyRespBuffer.tailAwaiting();
+        }
+
+        /**
+         * 连接关闭时 归还所有在途响应的缓存
+         */
+        public void releaseAll() {
+            while (inFlyRespBuffer != null) {
+                inFlyRespBuffer.release();
+                inFlyRespBuffer = respQueue.poll();
+            }
+            processingRespOffset = 0;
+            XBackpressure.QUEUED_BYTES.addAndGet(-queuedBytes);
+            queuedBytes = 0;
+        }
+
+        /**
+         * 把在途响应的剩余部分 & 队列中的后续响应 放入gatheringBuffers
+         * 遇到content之后还有数据的响应时 只合并到它的content为止
+         *
+         * @return 待写出的总字节数
+         */
+        private long gather() {
+            ByteBuffer first = inFlyRespBuffer.view();
+            first.limit(inFlyRespBuffer.length).position(processingRespOffset);
+            gatheringBuffers[0] = first;
+            long bytesToWrite = first.remaining();
+
+            gatheredCount = 1;
+            if (inFlyRespBuffer.tailRemaining() > 0) return bytesToWrite;
+            for (XBuffer next : respQueue) {
+                if (gatheredCount == gatheringBuffers.length) break;
+                ByteBuffer nextView = next.view();
+                nextView.limit(next.length).position(0);
+                gatheringBuffers[gatheredCount++] = nextView;
+                bytesToWrite += next.length;
+                if (next.tailRemaining() > 0) break;
+            }
+            return bytesToWrite;
+        }
+
+        /**
+         * 在途响应全部写完 -> 归还缓存 Queue中取下一个业务数据包做为在途响应
+         */
+        private void pollNext() {
+            if (/**追踪中的响应写完了最后一个字节**/inFlyRespBuffer.traceFirstByteNanos != 0) {
+                XTrace.complete(inFlyRespBuffer, System.nanoTime());
+            }
+            inFlyRespBuffer.release();
+            inFlyRespBuffer = respQueue.poll();
+            processingRespOffset = 0;//重置偏移量
+        }
+
+        /**
+         * 根据本次写出的字节数 推进在途响应:
+         * 写完的响应归还缓存并出队 写了一部分的响应记录偏移量
+         */
+        private void advance(long bytesWritten) {
+            // gathering writes only contain content -> every byte written leaves the queue
+            queuedBytes -= bytesWritten;
+            XBackpressure.QUEUED_BYTES.addAndGet(-bytesWritten);
+            while (inFlyRespBuffer != null) {
+                int remaining = inFlyRespBuffer.length - processingRespOffset;
+                if (bytesWritten < remaining) {
+                    processingRespOffset += (int) bytesWritten;
+                    return;
+                }
+                bytesWritten -= remaining;
+                processingRespOffset = inFlyRespBuffer.length;
+                if (/**content写完 还有content之后的数据**/inFlyRespBuffer.tailRemaining() > 0) {
+                    return;
+                }
+                /**写了一个完整业务数据包**/
+                pollNext();
+            }
+        }
+    }
+
+    /********************************作为扩展点加入的HTTP相关组件  如果使用自定义协议可删除*******************************************/
+
+    /**
+     * 协议HTTP下请求对应的模型
+     * 提供简单的:
+     * URI参数获取
+     * 报文Header部分字符串获取
+     * 报文Body部分字符串获取
+     * 大道至简 通讯皆为字节流 -> 何必转来转去徒增烦恼
+     * <p>
+     * 按需访问(不产生对象):
+     * 方法/路径/查询字符串/版本 -> XBuffer.content中的偏移量 & 长度(请求行第一次访问时切分)
+     * 首部 -> 解析时已记录位置 按名称查找不区分大小写
+     * 查询参数 -> 第一次访问时只记录位置 取值时才解码对应的参数
+     **/
+    public static class HttpRequest extends XBuffer {
+        /**
+         * 请求头在XBuffer.content中偏移量
+         */
+        public int headersOffset;
+        /**
+         * 请求实体在XBuffer.content中偏移量
+         */
+        public int bodyOffset;
+        /**
+         * 请求行在XBuffer.content中偏移量 & 长度(不包括结尾的\r\n)
+         */
+        public int requestLineOffset;
+        public int requestLineLength;
+        /**
+         * 解析时记录的首部位置 每个首部占4个int: 名称起始 名称结束 值起始 值结束(值已去掉首尾空白)
+         */
+        int[] headerPositions;
+        int headerCount;
+        /**
+         * URI参数
+         */
+        public Map<String, String> uriParamsMap;
+        /**
+         * 请求行切分结果(第一次访问时计算) methodLength == -1 -> 尚未切分
+         */
+        private int methodLength = -1;
+        private int targetOffset;
+        private int targetLength;
+        private int pathLength;
+        private int versionOffset;
+        /**
+         * 查询参数位置(第一次访问时计算) 每个参数占4个int: 名称起始 名称结束 值起始 值结束
+         */
+        private int[] queryPositions;
+        private int queryParamCount;
+        /**
+         * 路径参数(由{@link XRouter}匹配时设置) 每个参数占2个int: 起始 结束(未解码)
+         */
+        String[] pathParamNames;
+        int[] pathParamPositions;
+        int pathParamCount;
+
+        /**
+         * 是否保持连接(HTTP/1.1默认保持 HTTP/1.0默认关闭 由Connection首部决定)
+         * 为false时 响应写完后关闭连接 -> XHandler应在响应中带上"Connection: close"
+         */
+        public boolean keepAlive;
+
+        /**
+         * 流式实体: 该请求只包含请求行 & 首部 实体随后以HttpBodyChunk交给XHandler
+         */
+        public boolean streaming;
+
+        /**
+         * 内部byte[]由DefaultHttpXParser从读缓存中直接接管 -> 构造时不分配
+         */
+        public HttpRequest() {
+            super((XBufferPool) null, 0);
+        }
+
+        /**
+         * 获取URI参数(查询字符串中的name=value 按application/x-www-form-urlencoded解码)
+         * 同名参数取第一个
+         */
+        public Map<String, String> tryGetUriParams() {
+            if (uriParamsMap != null) return uriParamsMap;
+            indexQuery();
+            uriParamsMap = new HashMap<>();
+            for (int i = queryParamCount - 1; i >= 0; i--) {
+                int index = 4 * i;
+                uriParamsMap.put(HttpUtil.decodeQueryComponent(super.content, queryPositions[index], queryPositions[index + 1]),
+                        HttpUtil.decodeQueryComponent(super.content, queryPositions[index + 2], queryPositions[index + 3]));
+            }
+            return uriParamsMap;
+        }
+
+        /**
+         * 获取单个URI参数 -> 只解码该参数的值 比较参数名时不产生对象
+         *
+         * @return 不存在时返回null
+         */
+        public String getQueryParam(String name) {
+            int index = findQueryParam(name);
+            if (index == -1) return null;
+            return HttpUtil.decodeQueryComponent(super.content, queryPositions[4 * index + 2], queryPositions[4 * index + 3]);
+        }
+
+        /**
+         * @return 参数下标 不存在时返回-1
+         */
+        public int findQueryParam(String name) {
+            indexQuery();
+            for (int i = 0; i < queryParamCount; i++) {
+                int index = 4 * i;
+                if (HttpUtil.equalsDecoded(super.content, queryPositions[index], queryPositions[index + 1], name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public int getQueryParamCount() {
+            indexQuery();
+            return queryParamCount;
+        }
+
+        /*****************路径参数(由XRouter匹配时记录位置 取值时才解码)*********************************/
+
+        public int getPathParamCount() {
+            return pathParamCount;
+        }
+
+        public String getPathParamName(int index) {
+            return pathParamNames[index];
+        }
+
+        public int getPathParamOffset(int index) {
+            return pathParamPositions[2 * index];
+        }
+
+        public int getPathParamLength(int index) {
+            return pathParamPositions[2 * index + 1] - pathParamPositions[2 * index];
+        }
+
+        /**
+         * @param name 路由模板中的参数名(通配符未命名时为"*")
+         * @return 参数下标 不存在时返回-1
+         */
+        public int findPathParam(String name) {
+            for (int i = 0; i < pathParamCount; i++) {
+                if (pathParamNames[i].equals(name)) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * @return 解码(%xx)后的参数值 不存在时返回null
+         */
+        public String getPathParam(String name) {
+            int index = findPathParam(name);
+            if (index == -1) return null;
+            return HttpUtil.decodePathComponent(super.content, pathParamPositions[2 * index], pathParamPositions[2 * index + 1]);
+        }
+
+        /**
+         * 获取请求行字符串(不包括结尾的\r\n)
+         */
+        public String getRequestLineStr() {
+            return tryGetStr(requestLineOffset, requestLineLength, "UTF-8");
+        }
+
+        /*****************请求行各部分在XBuffer.content中的位置(不产生对象)*********************************/
+
+        public int getMethodOffset() {
+            indexRequestLine();
+            return requestLineOffset;
+        }
+
+        public int getMethodLength() {
+            indexRequestLine();
+            return methodLength;
+        }
+
+        /**
+         * @param method 区分大小写 e.g "GET"
+         */
+        public boolean isMethod(String method) {
+            indexRequestLine();
+            return HttpUtil.equalsAscii(super.content, requestLineOffset, methodLength, method);
+        }
+
+        public String getMethod() {
+            indexRequestLine();
+            return tryGetStr(requestLineOffset, methodLength, "US-ASCII");
+        }
+
+        /**
+         * 请求目标中'?'之前的部分(未解码)
+         */
+        public int getPathOffset() {
+            indexRequestLine();
+            return targetOffset;
+        }
+
+        public int getPathLength() {
+            indexRequestLine();
+            return pathLength;
+        }
+
+        /**
+         * @return 请求目标中'?'之前的部分(未解码)
+         */
+        public String getPath() {
+            indexRequestLine();
+            return tryGetStr(targetOffset, pathLength, "UTF-8");
+        }
+
+        /**
+         * @return 查询字符串('?'之后)的偏移量 没有'?'时返回-1
+         */
+        public int getQueryOffset() {
+            indexRequestLine();
+            return pathLength == targetLength ? -1 : targetOffset + pathLength + 1;
+        }
+
+        public int getQueryLength() {
+            indexRequestLine();
+            return pathLength == targetLength ? 0 : targetLength - pathLength - 1;
+        }
+
+        public int getVersionOffset() {
+            indexRequestLine();
+            return versionOffset;
+        }
+
+        public int getVersionLength() {
+            indexRequestLine();
+            return requestLineOffset + requestLineLength - versionOffset;
+        }
+
+        /*****************首部(解析时已建立索引 查找不产生对象)*********************************/
+
+        public int getHeaderCount() {
+            return headerCount;
+        }
+
+        /**
+         * @param name 首部名(不区分大小写)
+         * @return 首部下标 不存在时返回-1
+         */
+        public int findHeader(String name) {
+            for (int i = 0; i < headerCount; i++) {
+                int index = 4 * i;
+                int nameStart = headerPositions[index];
+                if (HttpUtil.equalsIgnoreCase(super.content, nameStart, headerPositions[index + 1] - nameStart, name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public int getHeaderNameOffset(int index) {
+            return headerPositions[4 * index];
+        }
+
+        public int getHeaderNameLength(int index) {
+            return headerPositions[4 * index + 1] - headerPositions[4 * index];
+        }
+
+        public int getHeaderValueOffset(int index) {
+            return headerPositions[4 * index + 2];
+        }
+
+        public int getHeaderValueLength(int index) {
+            return headerPositions[4 * index + 3] - headerPositions[4 * index + 2];
+        }
+
+        /**
+         * 获取首部值(首部名不区分大小写)
+         *
+         * @return 不存在时返回null
+         */
+        public String getHeader(String name) {
+            int index = findHeader(name);
+            if (index == -1) return null;
+            return tryGetStr(getHeaderValueOffset(index), getHeaderValueLength(index), "UTF-8");
+        }
+
+        /**
+         * 获取数值型首部值 -> 直接由字节计算 不产生对象
+         *
+         * @return 不存在/不是非负整数时返回defaultValue
+         */
+        public long getHeaderLong(String name, long defaultValue) {
+            int index = findHeader(name);
+            if (index == -1) return defaultValue;
+            int valueStart = getHeaderValueOffset(index);
+            int valueEnd = valueStart + getHeaderValueLength(index);
+            if (valueStart == valueEnd || valueEnd - valueStart > 18) return defaultValue;
+            long value = 0;
+            for (int i = valueStart; i < valueEnd; i++) {
+                int digit = super.content[i] - '0';
+                if (digit < 0 || digit > 9) return defaultValue;
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * 首部值是否包含token(不区分大小写) e.g headerContains("Accept-Encoding", "gzip")
+         */
+        public boolean headerContains(String name, String token) {
+            int index = findHeader(name);
+            if (index == -1) return false;
+            int valueStart = getHeaderValueOffset(index);
+            int valueEnd = valueStart + getHeaderValueLength(index);
+            for (int i = valueStart; i + token.length() <= valueEnd; i++) {
+                if (HttpUtil.equalsIgnoreCase(super.content, i, token.length(), token)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * 第一次访问时切分请求行: 方法 SP 请求目标 SP 版本
+         */
+        private void indexRequestLine() {
+            if (methodLength != -1) return;
+            int end = requestLineOffset + requestLineLength;
+            int index = requestLineOffset;
+            while (index < end && super.content[index] != ' ') index++;
+            methodLength = index - requestLineOffset;
+            while (index < end && super.content[index] == ' ') index++;
+            targetOffset = index;
+            while (index < end && super.content[index] != ' ') index++;
+            targetLength = index - targetOffset;
+            int question = HttpUtil.findNext(super.content, targetOffset, index, (byte) '?');
+            pathLength = question == -1 ? targetLength : question - targetOffset;
+            while (index < end && super.content[index] == ' ') index++;
+            versionOffset = index;
+        }
+
+        /**
+         * 第一次访问查询参数时建立索引(只记录位置 不解码)
+         */
+        private void indexQuery() {
+            if (queryPositions != null) return;
+            queryPositions = new int[0];
+            int queryOffset = getQueryOffset();
+            if (queryOffset == -1) return;
+            int queryEnd = queryOffset + getQueryLength();
+
+            int pairStart = queryOffset;
+            while (pairStart < queryEnd) {
+                int pairEnd = HttpUtil.findNext(super.content, pairStart, queryEnd, (byte) '&');
+                if (pairEnd == -1) pairEnd = queryEnd;
+                if (pairEnd > pairStart) {
+                    int equals = HttpUtil.findNext(super.content, pairStart, pairEnd, (byte) '=');
+                    if (4 * (queryParamCount + 1) > queryPositions.length) {
+                        queryPositions = Arrays.copyOf(queryPositions, Math.max(16, queryPositions.length * 2));
+                    }
+                    int index = 4 * queryParamCount++;
+                    queryPositions[index] = pairStart;
+                    queryPositions[index + 1] = equals == -1 ? pairEnd : equals;
+                    queryPositions[index + 2] = equals == -1 ? pairEnd : equals + 1;
+                    queryPositions[index + 3] = pairEnd;
+                }
+                pairStart = pairEnd + 1;
+            }
+        }
+
+        /**
+         * 获取首部段字符串
+         */
+        public String getHeaderStr() {
+            int headerLength;
+            if (bodyOffset == -1) {
+                headerLength = super.length - headersOffset;
+            } else {
+                headerLength = bodyOffset - headersOffset;
+            }
+
+            return tryGetStr(headersOffset, headerLength, "UTF-8");
+        }
+
+        /**
+         * 获取实体字符串
+         */
+        public String getBodyStr() {
+            if (bodyOffset == -1) return "";
+
+            int bodyLength = super.length - bodyOffset;
+
+            return tryGetStr(bodyOffset, bodyLength, "UTF-8");
+        }
+
+        /**
+         * 获取字符串
+         */
+        private String tryGetStr(int offset, int length, String charset) {
+            if (length <= 0) return "";
+            byte[] bytes_buffer = new byte[length];
+            System.arraycopy(super.content, offset, bytes_buffer, 0, length);
+
+            String rst;
+            try {
+                rst = new String(bytes_buffer, charset);
+            } catch (UnsupportedEncodingException e) {
+                rst = "";
+            }
+            return rst;
+        }
+    }
+
+
+    /**
+     * 流式实体的一段数据(见{@link HttpRequest#streaming}) 数据位于content的[0, length)
+     * 与请求一样 XHandler返回后归还XBufferPool -> 需要保留的数据应在handle()中拷贝/写出
+     * XHandler处理不过来时可以调用{@link XSocket#suspendRead(int)}暂停读取 处理完后{@link XSocket#resumeRead(int)}
+     */
+    public static class HttpBodyChunk extends XBuffer {
+        /**
+         * 实体的最后一段 -> XHandler应在此时(或之后)返回响应
+         */
+        public boolean last;
+
+        public HttpBodyChunk() {
+            super((XBufferPool) null, 0);
+        }
+    }
+
+    /**
+     * HTTP响应编码器 -> 状态行 首部 实体直接写入XBufferPool中的XBuffer
+     * 常用的状态行 首部名 首部值都是预先编码好的byte[] 数字直接按十进制写出
+     * Date首部的值每秒只格式化一次 所有响应共享
+     * 自动补充Content-Length 请求不保持连接时自动补充"Connection: close"
+     * -> 构造常见的响应不需要拼接String 也不需要字符集编码
+     * 开启压缩时 body()按Content-Type & 实体大小 & Accept-Encoding自动压缩(见{@link XCompression})
+     * <p>
+     * e.g HttpResponse.of(request, 200).contentType(HttpResponse.TEXT_PLAIN).body(bytes)
+     * 首部按调用顺序写出 -> body()/noBody()/head()之后不能再添加首部
+     */
+    public static class HttpResponse {
+
+        /**
+         * 状态码 -> 预先编码的状态行(包括结尾的\r\n)
+         */
+        private static final byte[][] STATUS_LINES = new byte[600][];
+
+        static {
+            String[] statuses = {
+                    "100 Continue", "101 Switching Protocols",
+                    "200 OK", "201 Created", "202 Accepted", "204 No Content", "206 Partial Content",
+                    "301 Moved Permanently", "302 Found", "303 See Other", "304 Not Modified",
+                    "307 Temporary Redirect", "308 Permanent Redirect",
+                    "400 Bad Request", "401 Unauthorized", "403 Forbidden", "404 Not Found",
+                    "405 Method Not Allowed", "408 Request Timeout", "409 Conflict", "411 Length Required",
+                    "413 Payload Too Large", "414 URI Too Long", "415 Unsupported Media Type",
+                    "416 Range Not Satisfiable", "429 Too Many Requests", "431 Request Header Fields Too Large",
+                    "500 Internal Server Error", "501 Not Implemented", "502 Bad Gateway",
+                    "503 Service Unavailable", "504 Gateway Timeout"
+            };
+            for (String status : statuses) {
+                STATUS_LINES[Integer.parseInt(status.substring(0, 3))] = ascii("HTTP/1.1 " + status + "\r\n");
+            }
+        }
+
+        /*****************首部名(不包括": ")*********************************/
+        public static final byte[] CONTENT_TYPE = ascii("Content-Type");
+        public static final byte[] CONTENT_LENGTH = ascii("Content-Length");
+        public static final byte[] CONTENT_ENCODING = ascii("Content-Encoding");
+        public static final byte[] CONTENT_RANGE = ascii("Content-Range");
+        public static final byte[] CACHE_CONTROL = ascii("Cache-Control");
+        public static final byte[] LOCATION = ascii("Location");
+        public static final byte[] LAST_MODIFIED = ascii("Last-Modified");
+        public static final byte[] VARY = ascii("Vary");
+        public static final byte[] ACCEPT_ENCODING = ascii("Accept-Encoding");
+        public static final byte[] ACCEPT_RANGES = ascii("Accept-Ranges");
+        public static final byte[] DATE = ascii("Date");
+        public static final byte[] SERVER = ascii("Server");
+
+        /*****************常用的首部值*********************************/
+        public static final byte[] TEXT_PLAIN = ascii("text/plain; charset=utf-8");
+        public static final byte[] TEXT_HTML = ascii("text/html; charset=utf-8");
+        public static final byte[] APPLICATION_JSON = ascii("application/json; charset=utf-8");
+        public static final byte[] APPLICATION_OCTET_STREAM = ascii("application/octet-stream");
+        public static final byte[] NO_CACHE = ascii("no-cache");
+        public static final byte[] BYTES = ascii("bytes");
+
+        private static final byte[] HEADER_SEPARATOR = ascii(": ");
+        private static final byte[] CRLF = ascii("\r\n");
+        static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+
+        /**
+         * 状态行 & 首部预留的空间 -> 写入实体前一次性扩容
+         */
+        private static final int HEADERS_RESERVE = 256;
+
+        /**
+         * 当前秒的Date首部值 -> 每秒第一次使用时重新格式化(多个线程同时刷新也只是重复计算)
+         */
+        private static volatile CachedDate cachedDate = new CachedDate(System.currentTimeMillis() / 1000);
+
+        private final XBuffer xBuffer;
+        private final HttpRequest request;
+        private final boolean keepAlive;
+        /**
+         * 通过contentType(...) / header("Content-Type", ...)设置的值(字节/字符串形式 只有一个非null) -> 判断是否压缩
+         */
+        private byte[] contentType;
+        private String contentTypeText;
+        /**
+         * 实体内容不会再变化 -> 压缩结果可以缓存
+         */
+        private boolean cacheable;
+
+        /**
+         * @param status 常见的状态码(见STATUS_LINES) 其他状态码使用{@link #of(HttpRequest, int, String)}
+         */
+        public static HttpResponse of(HttpRequest request, int status) {
+            byte[] statusLine = status >= 0 && status < STATUS_LINES.length ? STATUS_LINES[status] : null;
+            if (statusLine == null) throw new IllegalArgumentException("unknown status code: " + status);
+            HttpResponse response = new HttpResponse(request);
+            response.xBuffer.cache(statusLine);
+            return response;
+        }
+
+        /**
+         * @param reason 原因短语(ASCII)
+         */
+        public static HttpResponse of(HttpRequest request, int status, String reason) {
+            HttpResponse response = new HttpResponse(request);
+            response.xBuffer.cacheAscii("HTTP/1.1 ");
+            response.xBuffer.cacheDecimal(status);
+            response.xBuffer.cache((byte) ' ');
+            response.xBuffer.cacheAscii(reason);
+            response.xBuffer.cache(CRLF);
+            return response;
+        }
+
+        private HttpResponse(HttpRequest request) {
+            this.xBuffer = new XBuffer();
+            this.xBuffer.xSocketId = request.xSocketId;
+            this.request = request;
+            this.keepAlive = request.keepAlive;
+        }
+
+        public HttpResponse contentType(byte[] value) {
+            return header(CONTENT_TYPE, value);
+        }
+
+        /**
+         * @param value ASCII 不转换为byte[] -> 直接写入
+         */
+        public HttpResponse contentType(String value) {
+            return header(CONTENT_TYPE, value);
+        }
+
+        public HttpResponse header(byte[] name, byte[] value) {
+            if (isContentType(name)) {
+                contentType = value;
+                contentTypeText = null;
+            }
+            xBuffer.cache(name);
+            xBuffer.cache(HEADER_SEPARATOR);
+            xBuffer.cache(value);
+            xBuffer.cache(CRLF);
+            return this;
+        }
+
+        public HttpResponse header(byte[] name, long value) {
+            xBuffer.cache(name);
+            xBuffer.cache(HEADER_SEPARATOR);
+            xBuffer.cacheDecimal(value);
+            xBuffer.cache(CRLF);
+            return this;
+        }
+
+        /**
+         * @param value ASCII(e.g 动态生成的ETag / Location)
+         */
+        public HttpResponse header(byte[] name, String value) {
+            if (isContentType(name)) {
+                contentTypeText = value;
+                contentType = null;
+            }
+            xBuffer.cache(name);
+            xBuffer.cache(HEADER_SEPARATOR);
+            xBuffer.cacheAscii(value);
+            xBuffer.cache(CRLF);
+            return this;
+        }
+
+        /**
+         * 首部名称不区分大小写 -> 调用方自己编码的"Content-Type"也能识别
+         */
+        private static boolean isContentType(byte[] name) {
+            return name == CONTENT_TYPE || HttpUtil.equalsIgnoreCase(name, 0, name.length, "Content-Type");
+        }
+
+        /**
+         * @return 完整的响应(实体为src)
+         */
+        public XBuffer body(byte[] src) {
+            return body(src, 0, src.length);
+        }
+
+        public XBuffer body(byte[] src, int offset, int length) {
+            if (contentTypeText != null
+                    ? XCompression.isCompressible(contentTypeText, length)
+                    : XCompression.isCompressible(contentType, length)) {
+                header(VARY, ACCEPT_ENCODING);
+                int encoding = XCompression.negotiate(request);
+                if (encoding != XCompression.IDENTITY) {
+                    return compressedBody(src, offset, length, encoding);
+                }
+            }
+            return encodedBody(src, offset, length);
+        }
+
+        /**
+         * 实体内容不会再变化(e.g 常量/静态资源) -> 压缩结果放入XCompression的缓存 之后相同的实体不再重复压缩
+         * 以实体byte[]的引用识别 -> 之后不能修改该byte[]
+         */
+        public HttpResponse cacheable() {
+            this.cacheable = true;
+            return this;
+        }
+
+        /**
+         * 实体原样写出 -> 不再压缩(e.g 已经压缩过的数据)
+         */
+        public XBuffer encodedBody(byte[] src, int offset, int length) {
+            xBuffer.reserve(HEADERS_RESERVE + length);
+            endHeaders(length);
+            xBuffer.cache(src, offset, length);
+            return xBuffer;
+        }
+
+        private XBuffer compressedBody(byte[] src, int offset, int length, int encoding) {
+            header(CONTENT_ENCODING, XCompression.nameOf(encoding));
+            if (cacheable) {
+                byte[] compressed = XCompression.compressCached(src, offset, length, encoding);
+                return encodedBody(compressed, 0, compressed.length);
+            }
+            XBuffer compressed = new XBuffer();
+            try {
+                XCompression.compress(src, offset, length, encoding, compressed);
+                return encodedBody(compressed.content, 0, compressed.length);
+            } finally {
+                compressed.release();
+            }
+        }
+
+        /**
+         * @param text 以UTF-8编码(需要编码 -> 热点路径上应使用预先编码的byte[])
+         */
+        public XBuffer body(String text) {
+            return body(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return 没有实体的完整响应(Content-Length: 0)
+         */
+        public XBuffer noBody() {
+            endHeaders(0);
+            return xBuffer;
+        }
+
+        /**
+         * 只写出状态行 & 首部 实体由调用方继续写入/由XBuffer的tail写出
+         * HEAD请求也使用它 -> Content-Length为GET时的实体长度
+         *
+         * @param contentLength -1 -> 不写Content-Length(e.g 304 / 分块编码)
+         */
+        public XBuffer head(long contentLength) {
+            endHeaders(contentLength);
+            return xBuffer;
+        }
+
+        /**
+         * 首部被多个请求共享(e.g StaticResourceCache中的响应) -> 不写Date & Connection
+         * 使用方按请求把{@link #dateLine()}(& {@link #CONNECTION_CLOSE})插入到结尾的空行之前
+         */
+        public XBuffer sharedHead(long contentLength) {
+            header(CONTENT_LENGTH, contentLength);
+            xBuffer.cache(CRLF);
+            return xBuffer;
+        }
+
+        private void endHeaders(long contentLength) {
+            xBuffer.cache(dateLine());
+            if (contentLength >= 0) header(CONTENT_LENGTH, contentLength);
+            if (!keepAlive) xBuffer.cache(CONNECTION_CLOSE);
+            xBuffer.cache(CRLF);
+        }
+
+        /**
+         * @return 当前秒的Date首部(包括结尾的\r\n) e.g "Date: Sun, 18 Oct 2026 08:00:00 GMT\r\n"
+         */
+        static byte[] dateLine() {
+            long second = System.currentTimeMillis() / 1000;
+            CachedDate date = cachedDate;
+            if (date.second != second) {
+                date = new CachedDate(second);
+                cachedDate = date;
+            }
+            return date.line;
+        }
+
+        private static byte[] ascii(String src) {
+            return src.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private static final class CachedDate {
+            private final long second;
+            private final byte[] line;
+
+            private CachedDate(long second) {
+                this.second = second;
+                this.line = ascii("Date: " + HttpUtil.HTTP_DATE_FORMATTER.format(Instant.ofEpochSecond(second)) + "\r\n");
+            }
+        }
+    }
+
+    /**
+     * HTTP响应压缩(gzip / deflate) -> 由{@link HttpResponse}和{@link StaticFileXHandler}使用
+     * <p>
+     * 是否压缩: Container.HTTP_COMPRESSION_ENABLED & 实体不小于HTTP_COMPRESSION_MIN_BYTES
+     * & Content-Type在HTTP_COMPRESSION_TYPES中 & 请求的Accept-Encoding接受(gzip优先)
+     * <p>
+     * Deflater & CRC32从有界的池中借用 用完reset后归还 -> 不为每个响应分配(Deflater持有本地内存)
+     * 不按线程保存 -> Worker模式下的虚拟线程(每个请求一个线程)也能复用 池满时归还的Deflater立即end()释放本地内存
+     * gzip的头部 & 尾部(CRC32 + 原始长度)手动写出 -> 压缩数据直接写入XBuffer
+     * 内容不变的实体(静态资源/常量)的压缩结果放入有界的LRU缓存 -> 命中时不再重复压缩
+     */
+    public static class XCompression {
+
+        public static final int IDENTITY = 0;
+        public static final int GZIP = 1;
+        public static final int DEFLATE = 2;
+
+        private static final byte[] GZIP_NAME = "gzip".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] DEFLATE_NAME = "deflate".getBytes(StandardCharsets.US_ASCII);
+
+        /**
+         * 魔数 压缩方法(8 -> deflate) 标志 修改时间(4) 额外标志 操作系统(255 -> 未知)
+         */
+        private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        /**
+         * 空闲的压缩器 nowrap -> 原始deflate数据(gzip) / zlib格式(Content-Encoding: deflate)
+         */
+        private static final Queue<Compressor> GZIP_COMPRESSORS = new ArrayBlockingQueue<>(Math.max(1, Container.HTTP_COMPRESSION_POOL_SIZE));
+        private static final Queue<Compressor> ZLIB_COMPRESSORS = new ArrayBlockingQueue<>(Math.max(1, Container.HTTP_COMPRESSION_POOL_SIZE));
+
+        private static final class Compressor {
+            final Deflater deflater;
+            final CRC32 crc32 = new CRC32();
+
+            Compressor(boolean nowrap) {
+                deflater = new Deflater(Container.HTTP_COMPRESSION_LEVEL, nowrap);
+            }
+        }
+
+        private static final VariantCache VARIANTS =
+                new VariantCache(Container.HTTP_COMPRESSION_CACHE_MAX_BYTES, Container.HTTP_COMPRESSION_CACHE_MAX_ENTRIES);
+
+        /**
+         * Content-Type & 实体大小 是否需要压缩(与请求无关 -> 决定是否带上"Vary: Accept-Encoding")
+         */
+        public static boolean isCompressible(String contentType, long length) {
+            if (!Container.HTTP_COMPRESSION_ENABLED || length < Container.HTTP_COMPRESSION_MIN_BYTES || contentType == null) {
+                return false;
+            }
+            for (String type : Container.HTTP_COMPRESSION_TYPES) {
+                if (contentType.regionMatches(true, 0, type, 0, type.length())) return true;
+            }
+            return false;
+        }
+
+        /**
+         * 同{@link #isCompressible(String, long)} Content-Type为字节形式(e.g HttpResponse中预先编码的常量)
+         */
+        public static boolean isCompressible(byte[] contentType, long length) {
+            if (!Container.HTTP_COMPRESSION_ENABLED || length < Container.HTTP_COMPRESSION_MIN_BYTES || contentType == null) {
+                return false;
+            }
+            for (String type : Container.HTTP_COMPRESSION_TYPES) {
+                if (contentType.length >= type.length()
+                        && HttpUtil.equalsIgnoreCase(contentType, 0, type.length(), type)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * 按Accept-Encoding协商 -> gzip优先 q=0表示拒绝 "*"匹配未列出的编码
+         * 直接扫描首部值的字节 不产生对象
+         *
+         * @return GZIP / DEFLATE / IDENTITY
+         */
+        public static int negotiate(HttpRequest request) {
+            int index = request.findHeader("Accept-Encoding");
+            if (index == -1) return IDENTITY;
+            byte[] src = request.content;
+            int valueEnd = request.getHeaderValueOffset(index) + request.getHeaderValueLength(index);
+
+            // -1 -> 未列出 0 -> 拒绝 1 -> 接受
+            int gzip = -1;
+            int deflate = -1;
+            int any = -1;
+            int tokenStart = request.getHeaderValueOffset(index);
+            while (tokenStart < valueEnd) {
+                int tokenEnd = HttpUtil.findNext(src, tokenStart, valueEnd, (byte) ',');
+                if (tokenEnd == -1) tokenEnd = valueEnd;
+                int nameEnd = HttpUtil.findNext(src, tokenStart, tokenEnd, (byte) ';');
+                if (nameEnd == -1) nameEnd = tokenEnd;
+
+                int nameStart = tokenStart;
+                while (nameStart < nameEnd && (src[nameStart] == ' ' || src[nameStart] == '\t')) nameStart++;
+                while (nameEnd > nameStart && (src[nameEnd - 1] == ' ' || src[nameEnd - 1] == '\t')) nameEnd--;
+                int accepted = isZeroQuality(src, nameEnd, tokenEnd) ? 0 : 1;
+
+                int nameLength = nameEnd - nameStart;
+                if (HttpUtil.equalsIgnoreCase(src, nameStart, nameLength, GZIP_NAME)
+                        || HttpUtil.equalsIgnoreCase(src, nameStart, nameLength, "x-gzip")) {
+                    gzip = accepted;
+                } else if (HttpUtil.equalsIgnoreCase(src, nameStart, nameLength, DEFLATE_NAME)) {
+                    deflate = accepted;
+                } else if (nameLength == 1 && src[nameStart] == '*') {
+                    any = accepted;
+                }
+                tokenStart = tokenEnd + 1;
+            }
+
+            if (gzip == 1 || (gzip == -1 && any == 1)) return GZIP;
+            if (deflate == 1 || (deflate == -1 && any == 1)) return DEFLATE;
+            return IDENTITY;
+        }
+
+        /**
+         * @return Content-Encoding首部值
+         */
+        public static byte[] nameOf(int encoding) {
+            return encoding == GZIP ? GZIP_NAME : DEFLATE_NAME;
+        }
+
+        /**
+         * 压缩src[offset, offset + length) 追加到desc
+         */
+        public static void compress(byte[] src, int offset, int length, int encoding, XBuffer desc) {
+            Queue<Compressor> pool = encoding == GZIP ? GZIP_COMPRESSORS : ZLIB_COMPRESSORS;
+            Compressor compressor = pool.poll();
+            if (compressor == null) compressor = new Compressor(encoding == GZIP);
+            Deflater deflater = compressor.deflater;
+            try {
+                deflater.setInput(src, offset, length);
+                deflater.finish();
+
+                if (encoding == GZIP) desc.cache(GZIP_HEADER);
+                desc.reserve(length / 4 + 64);
+                while (!deflater.finished()) {
+                    if (desc.length == desc.content.length) desc.reserve(desc.content.length);
+                    desc.length += deflater.deflate(desc.content, desc.length, desc.content.length - desc.length);
+                }
+
+                if (encoding == GZIP) {
+                    CRC32 crc32 = compressor.crc32;
+                    crc32.reset();
+                    crc32.update(src, offset, length);
+                    writeIntLE(desc, (int) crc32.getValue());
+                    writeIntLE(desc, length);
+                }
+            } finally {
+                deflater.reset();
+                if (/**池已满 -> 立即释放本地内存**/!pool.offer(compressor)) deflater.end();
+            }
+        }
+
+        /**
+         * 内容不会再变化的实体 -> 压缩结果放入缓存
+         * 以src的引用(而非内容)识别实体 -> src在缓存期间不能被修改
+         *
+         * @return 压缩后的数据(共享 不能修改)
+         */
+        public static byte[] compressCached(byte[] src, int offset, int length, int encoding) {
+            return VARIANTS.get(src, offset, length, encoding);
+        }
+
+        public static String stats() {
+            return VARIANTS.stats();
+        }
+
+        /**
+         * ";q=0" / ";q=0.0" ... -> 拒绝
+         */
+        private static boolean isZeroQuality(byte[] src, int paramsStart, int tokenEnd) {
+            int q = paramsStart;
+            while (q + 1 < tokenEnd && !((src[q] == 'q' || src[q] == 'Q') && src[q + 1] == '=')) q++;
+            if (q + 1 >= tokenEnd) return false;
+            int index = q + 2;
+            if (index >= tokenEnd || src[index] != '0') return false;
+            for (index++; index < tokenEnd && src[index] != ' ' && src[index] != ';'; index++) {
+                if (src[index] != '0' && src[index] != '.') return false;
+            }
+            return true;
+        }
+
+        private static void writeIntLE(XBuffer desc, int value) {
+            desc.cache((byte) value);
+            desc.cache((byte) (value >>> 8));
+            desc.cache((byte) (value >>> 16));
+            desc.cache((byte) (value >>> 24));
+        }
+
+        /**
+         * 压缩结果的LRU缓存 -> 按压缩后的总字节数 & 项数限制
+         * 多个Reactor线程共享 -> 内部同步(压缩本身在锁外进行)
+         */
+        private static class VariantCache {
+            private final long maxBytes;
+            private final int maxEntries;
+            private final LinkedHashMap<Key, byte[]> variants = new LinkedHashMap<>(64, 0.75f, true);
+            private long cachedBytes;
+
+            private final LongAdder hits = new LongAdder();
+            private final LongAdder misses = new LongAdder();
+
+            private VariantCache(long maxBytes, int maxEntries) {
+                this.maxBytes = maxBytes;
+                this.maxEntries = maxEntries;
+            }
+
+            private byte[] get(byte[] src, int offset, int length, int encoding) {
+                Key key = new Key(src, offset, length, encoding);
+                synchronized (this) {
+                    byte[] variant = variants.get(key);
+                    if (variant != null) {
+                        hits.increment();
+                        return variant;
+                    }
+                }
+                misses.increment();
+
+                XBuffer compressed = new XBuffer((XBufferPool) null, 0);
+                compress(src, offset, length, encoding, compressed);
+                byte[] variant = Arrays.copyOf(compressed.content, compressed.length);
+                if (variant.length > maxBytes) return variant;
+
+                synchronized (this) {
+                    byte[] previous = variants.put(key, variant);
+                    if (previous != null) cachedBytes -= previous.length;
+                    cachedBytes += variant.length;
+
+                    Iterator<byte[]> it = variants.values().iterator();
+                    while ((cachedBytes > maxBytes || variants.size() > maxEntries) && it.hasNext()) {
+                        byte[] eldest = it.next();
+                        if (eldest == variant) continue;
+                        it.remove();
+                        cachedBytes -= eldest.length;
+                    }
+                }
+                return variant;
+            }
+
+            private synchronized String stats() {
+                return "compression cache entries=" + variants.size() + " bytes=" + cachedBytes
+                        + " hits=" + hits.sum() + " misses=" + misses.sum();
+            }
+        }
+
+        /**
+         * 实体的引用(==) & 范围 & 编码
+         */
+        private static final class Key {
+            private final byte[] src;
+            private final int offset;
+            private final int length;
+            private final int encoding;
+
+            private Key(byte[] src, int offset, int length, int encoding) {
+                this.src = src;
+                this.offset = offset;
+                this.length = length;
+                this.encoding = encoding;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key key = (Key) o;
+                return src == key.src && offset == key.offset && length == key.length && encoding == key.encoding;
+            }
+
+            @Override
+            public int hashCode() {
+                return ((System.identityHashCode(src) * 31 + offset) * 31 + length) * 31 + encoding;
+            }
+        }
+    }
+
+    /**
+     * HTTP/1.1 持久连接 & 管线化(pipelining):
+     * 一次读取的数据中可能包含多个请求 -> 按报文边界逐个切出 按到达顺序输出(响应顺序由DefaultXWriter的FIFO保证)
+     * 请求不再保持连接(Connection: close / HTTP/1.0 / 达到HTTP_MAX_KEEP_ALIVE_REQUESTS) -> 标记closeConnection 之后的数据全部丢弃
+     * <p>
+     * 增量解析(状态机):
+     * 请求行 -> 首部 -> 实体 三个阶段 每个阶段的进度(扫描偏移量 已识别的位置)保存在解析器中
+     * 数据分多次到达时 每次parse()只扫描新到达的字节 -> 总开销与报文长度成线性关系
+     * 切出报文时拷贝较少的一方(见{@link #cut}) -> 一次读取中有大量管线化请求时 总拷贝量也与数据量成线性关系
+     * 首部的位置(名称 & 值的偏移量)在扫描时顺便记录 -> 交给HttpRequest
+     * Content-Length直接由字节计算 不构造String
+     * <p>
+     * 实体:
+     * Content-Length -> 按长度截取
+     * Transfer-Encoding: chunked -> 在读缓存中原地解码(数据块前移覆盖块长度行) 解码后的实体在XBuffer中连续存放
+     * <p>
+     * 流式实体(streamingBodyThreshold >= 0时开启):
+     * chunked 或 Content-Length超过阈值的请求 -> 首部完整后立即输出HttpRequest(streaming = true 不包含实体)
+     * 之后每次读取到的实体数据输出为HttpBodyChunk 最后一个标记last -> 每个连接占用的内存与实体大小无关
+     */
+    public static class DefaultHttpXParser implements XParser {
+        private static final int PHASE_REQUEST_LINE = 0;
+        private static final int PHASE_HEADERS = 1;
+        private static final int PHASE_BODY = 2;
+        private static final int PHASE_CHUNK_SIZE = 3;
+        private static final int PHASE_CHUNK_DATA = 4;
+        private static final int PHASE_CHUNK_DATA_END = 5;
+        private static final int PHASE_TRAILERS = 6;
+
+        private List<XBuffer> requests = new ArrayList<>();
+        /**
+         * 该连接上已解析的请求数
+         */
+        private int requestCount;
+        /**
+         * 已解析出连接上的最后一个请求
+         */
+        private boolean closed;
+        /**
+         * 实体超过该字节数(或chunked)时以流的方式输出 -1 -> 不使用流式实体
+         */
+        private final long streamingBodyThreshold;
+
+        /*****************当前请求的解析进度(读缓存中的偏移量)*********************************/
+        private int phase = PHASE_REQUEST_LINE;
+        /**
+         * 当前报文在读缓存中的起始位置 -> 之前的数据已经输出 parse()结束时统一前移
+         */
+        private int messageStart;
+        /**
+         * 下一次从这里开始扫描 -> 已扫描过的字节不再扫描
+         * 实体阶段 -> 尚未消费的第一个字节
+         */
+        private int scanOffset;
+        private int requestLineStart;
+        private int requestLineEnd;
+        private int headersStart;
+        private int headerLineStart;
+        private int bodyStart;
+        /**
+         * 已解码实体的结尾(chunked时解码后的数据前移到这里)
+         */
+        private int bodyEnd;
+        private long contentLength;
+        /**
+         * 出现过Content-Length首部 -> 重复的首部值必须相同
+         */
+        private boolean contentLengthPresent;
+        private long bodyRemaining;
+        private long chunkRemaining;
+        private boolean chunked;
+        private boolean streaming;
+        private boolean keepAlive;
+        /**
+         * 每个首部占4个int: 名称起始 名称结束 值起始 值结束
+         */
+        private int[] headerPositions = new int[4 * 16];
+        private int headerCount;
+
+        public DefaultHttpXParser() {
+            this(Container.HTTP_STREAMING_BODY_THRESHOLD);
+        }
+
+        public DefaultHttpXParser(long streamingBodyThreshold) {
+            this.streamingBodyThreshold = streamingBodyThreshold;
+        }
+
+        @Override
+        public void parse(XBuffer src) throws IOException {
+            // XBuffer  -> contains the bytes read from NIO read
+            while (!closed) {
+                XBuffer message = tryToParseHttpMessage(src);
+                if (message == null) {
+                    moveToFront(src);
+                    return;
+                }
+
+                if (message.closeConnection) {
+                    closed = true;
+                }
+                requests.add(message);
+            }
+            // the last request of the connection has been parsed -> discard anything after it
+            src.length = 0;
+        }
+
+        @Override
+        public List<XBuffer> getOutputs() {
+            if (requests.size() == 0) return new ArrayList<>();
+            return requests;
+        }
+
+        /**
+         * try to cut exactly one complete http request (or, for a streaming body, the request head / the next body chunk) off the head of readerBuffer
+         * resumes from where the previous call stopped, only bytes after scanOffset are scanned
+         * the bytes after the output (pipelined requests) stay in readerBuffer
+         *
+         * @return null if readerBuffer does not hold a complete request yet
+         * @throws IOException malformed request / header section too large -> the connection gets closed
+         */
+        public XBuffer tryToParseHttpMessage(XBuffer readerBuffer) throws IOException {
+            // parse in place: only [messageStart, readerBuffer.length) of content is unparsed
+            byte[] content = readerBuffer.content;
+            int content_end_index = readerBuffer.length;
+
+            if (phase == PHASE_REQUEST_LINE) {
+                int line_end_index = HttpUtil.findNext(content, scanOffset, content_end_index, (byte) '\n');
+                while (/**skip empty lines before the request line**/line_end_index != -1
+                        && HttpUtil.lineContentEnd(content, requestLineStart, line_end_index) == requestLineStart) {
+                    requestLineStart = scanOffset = line_end_index + 1;
+                    line_end_index = HttpUtil.findNext(content, scanOffset, content_end_index, (byte) '\n');
+                }
+                if (line_end_index == -1) {
+                    return pause(content_end_index);
+                }
+                requestLineEnd = HttpUtil.lineContentEnd(content, requestLineStart, line_end_index);
+                // HTTP/1.1 -> persistent by default, HTTP/1.0 -> close by default
+                keepAlive = !HttpUtil.isHttp10(content, requestLineStart, requestLineEnd);
+                headersStart = headerLineStart = scanOffset = line_end_index + 1;
+                phase = PHASE_HEADERS;
+            }
+
+            while (phase == PHASE_HEADERS) {
+                int line_end_index = HttpUtil.findNext(content, scanOffset, content_end_index, (byte) '\n');
+                if (line_end_index == -1) {
+                    return pause(content_end_index);
+                }
+                int line_content_end = HttpUtil.lineContentEnd(content, headerLineStart, line_end_index);
+                if (/**reach body**/line_content_end == headerLineStart) {
+                    bodyStart = bodyEnd = scanOffset = line_end_index + 1;
+                    startBody();
+                    if (streaming) {
+                        return requestHead(readerBuffer);
+                    }
+                } else {
+                    recordHeader(content, headerLineStart, line_content_end);
+                    headerLineStart = scanOffset = line_end_index + 1;
+                }
+            }
+
+            boolean bodyComplete = decodeBody(content, content_end_index);
+            if (streaming) {
+                return bodyChunk(readerBuffer, bodyComplete);
+            }
+            if (/**body not complete**/!bodyComplete) {
+                compact(readerBuffer);
+                return null;
+            }
+
+            HttpRequest request = new HttpRequest();
+            boolean tookOver = cut(readerBuffer, request, messageStart, bodyEnd, scanOffset);
+            fillRequest(request, messageStart);
+            request.bodyOffset = bodyEnd == bodyStart ? -1 : bodyStart - messageStart;
+            request.closeConnection = !keepAlive;
+
+            resetState(tookOver ? 0 : scanOffset);
+            return request;
+        }
+
+        /**
+         * not enough bytes yet -> remember the scan position
+         */
+        private XBuffer pause(int contentEndIndex) throws IOException {
+            scanOffset = contentEndIndex;
+            if (contentEndIndex - messageStart > Container.HTTP_MAX_HEADER_BYTES) {
+                throw new IOException("HTTP header section too large");
+            }
+            return null;
+        }
+
+        /**
+         * header line [lineStart, lineEnd) -> "name: value"
+         */
+        private void recordHeader(byte[] content, int lineStart, int lineEnd) throws IOException {
+            int colon = HttpUtil.findNext(content, lineStart, lineEnd, (byte) ':');
+            if (colon <= lineStart) {
+                throw new IOException("malformed HTTP header line");
+            }
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && (content[valueStart] == ' ' || content[valueStart] == '\t')) valueStart++;
+            while (valueEnd > valueStart && (content[valueEnd - 1] == ' ' || content[valueEnd - 1] == '\t')) valueEnd--;
+
+            if (HttpUtil.equalsIgnoreCase(content, lineStart, colon - lineStart, HttpUtil.CONTENT_LENGTH)) {
+                long value = HttpUtil.parseContentLength(content, valueStart, valueEnd);
+                if (/**与之前的Content-Length不同 -> 无法确定实体边界(请求走私)**/contentLengthPresent && value != contentLength) {
+                    throw new IOException("conflicting Content-Length");
+                }
+                contentLength = value;
+                contentLengthPresent = true;
+            } else if (HttpUtil.equalsIgnoreCase(content, lineStart, colon - lineStart, HttpUtil.TRANSFER_ENCODING)) {
+                recordTransferEncoding(content, valueStart, valueEnd);
+            } else if (HttpUtil.equalsIgnoreCase(content, lineStart, colon - lineStart, HttpUtil.CONNECTION)) {
+                if (HttpUtil.containsIgnoreCase(content, valueStart, valueEnd, HttpUtil.CLOSE)) {
+                    keepAlive = false;
+                } else if (HttpUtil.containsIgnoreCase(content, valueStart, valueEnd, HttpUtil.KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            }
+
+            if (4 * (headerCount + 1) > headerPositions.length) {
+                headerPositions = Arrays.copyOf(headerPositions, headerPositions.length * 2);
+            }
+            int index = 4 * headerCount++;
+            headerPositions[index] = lineStart;
+            headerPositions[index + 1] = colon;
+            headerPositions[index + 2] = valueStart;
+            headerPositions[index + 3] = valueEnd;
+        }
+
+        /**
+         * Transfer-Encoding: 编码列表(可以分多个首部) 只解码chunked
+         * chunked必须是最后一个编码 且只出现一次(RFC 9112 6.1) -> 否则无法确定实体边界 拒绝
+         */
+        private void recordTransferEncoding(byte[] content, int valueStart, int valueEnd) throws IOException {
+            boolean lastIsChunked = false;
+            int tokenStart = valueStart;
+            while (tokenStart <= valueEnd) {
+                int tokenEnd = HttpUtil.findNext(content, tokenStart, valueEnd, (byte) ',');
+                if (tokenEnd == -1) tokenEnd = valueEnd;
+                int next = tokenEnd + 1;
+                while (tokenStart < tokenEnd && (content[tokenStart] == ' ' || content[tokenStart] == '\t')) tokenStart++;
+                while (tokenEnd > tokenStart && (content[tokenEnd - 1] == ' ' || content[tokenEnd - 1] == '\t')) tokenEnd--;
+                if (/**空元素(e.g "gzip, , chunked")**/tokenStart < tokenEnd) {
+                    lastIsChunked = HttpUtil.equalsIgnoreCase(content, tokenStart, tokenEnd - tokenStart, HttpUtil.CHUNKED);
+                    if (/**chunked之后又出现编码 / chunked重复**/chunked) {
+                        throw new IOException("chunked is not the final Transfer-Encoding");
+                    }
+                    chunked = lastIsChunked;
+                }
+                tokenStart = next;
+            }
+            if (!lastIsChunked) {
+                throw new IOException("unsupported Transfer-Encoding");
+            }
+        }
+
+        /**
+         * 首部完整 -> 决定实体的解析方式(chunked优先于Content-Length)
+         * 同时出现Transfer-Encoding & Content-Length -> 按chunked解析 响应后关闭连接(RFC 9112 6.3 防止请求走私)
+         */
+        private void startBody() {
+            if (++requestCount >= Container.HTTP_MAX_KEEP_ALIVE_REQUESTS) {
+                keepAlive = false;
+            }
+            if (chunked && contentLengthPresent) {
+                keepAlive = false;
+            }
+            if (chunked) {
+                phase = PHASE_CHUNK_SIZE;
+            } else {
+                bodyRemaining = contentLength;
+                phase = PHASE_BODY;
+            }
+            streaming = streamingBodyThreshold >= 0 && (chunked || contentLength > streamingBodyThreshold);
+        }
+
+        /**
+         * 从scanOffset开始消费实体数据 -> 解码后的数据位于[bodyStart, bodyEnd)
+         *
+         * @return 实体是否完整
+         */
+        private boolean decodeBody(byte[] content, int contentEndIndex) throws IOException {
+            while (true) {
+                switch (phase) {
+                    case PHASE_BODY: {
+                        int n = (int) Math.min(contentEndIndex - scanOffset, bodyRemaining);
+                        scanOffset += n;
+                        bodyEnd = scanOffset;
+                        bodyRemaining -= n;
+                        return bodyRemaining == 0;
+                    }
+                    case PHASE_CHUNK_SIZE: {
+                        int line_end_index = HttpUtil.findNext(content, scanOffset, contentEndIndex, (byte) '\n');
+                        if (line_end_index == -1) {
+                            return waitForLine(contentEndIndex);
+                        }
+                        chunkRemaining = HttpUtil.parseChunkSize(content, scanOffset,
+                                HttpUtil.lineContentEnd(content, scanOffset, line_end_index));
+                        scanOffset = line_end_index + 1;
+                        phase = chunkRemaining == 0 ? PHASE_TRAILERS : PHASE_CHUNK_DATA;
+                        break;
+                    }
+                    case PHASE_CHUNK_DATA: {
+                        int n = (int) Math.min(contentEndIndex - scanOffset, chunkRemaining);
+                        if (/**前移 覆盖块长度行**/bodyEnd != scanOffset) {
+                            System.arraycopy(content, scanOffset, content, bodyEnd, n);
+                        }
+                        bodyEnd += n;
+                        scanOffset += n;
+                        chunkRemaining -= n;
+                        if (chunkRemaining > 0) return false;
+                        phase = PHASE_CHUNK_DATA_END;
+                        break;
+                    }
+                    case PHASE_CHUNK_DATA_END: {
+                        int line_end_index = HttpUtil.findNext(content, scanOffset, contentEndIndex, (byte) '\n');
+                        if (line_end_index == -1) {
+                            return waitForLine(contentEndIndex);
+                        }
+                        if (HttpUtil.lineContentEnd(content, scanOffset, line_end_index) != scanOffset) {
+                            throw new IOException("malformed chunk");
+                        }
+                        scanOffset = line_end_index + 1;
+                        phase = PHASE_CHUNK_SIZE;
+                        break;
+                    }
+                    case PHASE_TRAILERS: {
+                        int line_end_index = HttpUtil.findNext(content, scanOffset, contentEndIndex, (byte) '\n');
+                        if (line_end_index == -1) {
+                            return waitForLine(contentEndIndex);
+                        }
+                        boolean lastLine = HttpUtil.lineContentEnd(content, scanOffset, line_end_index) == scanOffset;
+                        scanOffset = line_end_index + 1;
+                        if (lastLine) return true;
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("phase " + phase);
+                }
+            }
+        }
+
+        /**
+         * 块长度行/尾部首部行不完整 -> 下次从行首重新扫描(行很短)
+         */
+        private boolean waitForLine(int contentEndIndex) throws IOException {
+            if (contentEndIndex - scanOffset > Container.HTTP_MAX_HEADER_BYTES) {
+                throw new IOException("HTTP chunk line too large");
+            }
+            return false;
+        }
+
+        /**
+         * 请求行 & 首部的位置 -> request(位置减去shift: 报文在request.content中从0开始)
+         */
+        private void fillRequest(HttpRequest request, int shift) {
+            request.headersOffset = headersStart - shift;
+            request.requestLineOffset = requestLineStart - shift;
+            request.requestLineLength = requestLineEnd - requestLineStart;
+            request.keepAlive = keepAlive;
+            request.headerPositions = new int[4 * headerCount];
+            for (int i = 0; i < request.headerPositions.length; i++) {
+                request.headerPositions[i] = headerPositions[i] - shift;
+            }
+            request.headerCount = headerCount;
+        }
+
+        /**
+         * 流式实体: 只输出请求行 & 首部 -> 实体数据随后以HttpBodyChunk输出
+         * 连接是否关闭由最后一个HttpBodyChunk决定
+         */
+        private HttpRequest requestHead(XBuffer readerBuffer) {
+            HttpRequest request = new HttpRequest();
+            boolean tookOver = cut(readerBuffer, request, messageStart, bodyStart, bodyStart);
+            fillRequest(request, messageStart);
+            request.bodyOffset = -1;
+            request.streaming = true;
+
+            messageStart = bodyStart = bodyEnd = scanOffset = tookOver ? 0 : bodyStart;
+            return request;
+        }
+
+        /**
+         * 流式实体: 已解码的数据[bodyStart, bodyEnd)输出为一个HttpBodyChunk
+         *
+         * @return null -> 没有新的实体数据
+         */
+        private HttpBodyChunk bodyChunk(XBuffer readerBuffer, boolean last) {
+            if (!last && bodyEnd == bodyStart) {
+                compact(readerBuffer);
+                return null;
+            }
+            HttpBodyChunk chunk = new HttpBodyChunk();
+            boolean tookOver = cut(readerBuffer, chunk, bodyStart, bodyEnd, scanOffset);
+            chunk.last = last;
+            chunk.closeConnection = last && !keepAlive;
+
+            int next = tookOver ? 0 : scanOffset;
+            if (last) {
+                resetState(next);
+            } else {
+                messageStart = bodyStart = bodyEnd = scanOffset = next;
+            }
+            return chunk;
+        }
+
+        /**
+         * 读缓存中[start, end)的数据 -> output(在output.content中从0开始) restStart之后的数据留在读缓存
+         * 拷贝较少的一方:
+         * A start == 0 且剩余数据不多于输出 -> output直接接管读缓存的byte[] 读缓存只保留剩余数据(移到0)
+         * B 否则 -> 拷贝[start, end)到output自己的byte[](小于X_BUFFER_INITIAL_SIZE时不占用XBufferPool的分级) 读缓存不变
+         *
+         * @return 是否为A(读缓存中的偏移量需要减去restStart)
+         */
+        private static boolean cut(XBuffer readerBuffer, XBuffer output, int start, int end, int restStart) {
+            output.xSocketId = readerBuffer.xSocketId;
+            output.xSocket = readerBuffer.xSocket;
+            int restLength = readerBuffer.length - restStart;
+
+            if (start == 0 && restLength <= end) {
+                output.pool = readerBuffer.pool;
+                output.content = readerBuffer.content;
+                output.length = end;
+                if (restLength == 0) {
+                    // rare but perfect condition: clear all data of readerBuffer
+                    readerBuffer.reset();
+                } else {
+                    //拆包: remain the rest part of buffer(content now belongs to the output)
+                    readerBuffer.reset(restStart, restLength);
+                }
+                return true;
+            }
+
+            int length = end - start;
+            if (length < Container.X_BUFFER_INITIAL_SIZE) {
+                output.pool = null;
+                output.content = Arrays.copyOfRange(readerBuffer.content, start, end);
+                output.length = length;
+            } else {
+                output.pool = readerBuffer.pool;
+                output.cache(readerBuffer.content, start, length);
+            }
+            return false;
+        }
+
+        /**
+         * parse()结束时: 已输出的数据[0, messageStart)从读缓存中移除 -> 未完成的报文移到读缓存起始位置
+         */
+        private void moveToFront(XBuffer readerBuffer) {
+            int delta = messageStart;
+            if (delta == 0) return;
+            System.arraycopy(readerBuffer.content, delta, readerBuffer.content, 0, readerBuffer.length - delta);
+            readerBuffer.length -= delta;
+            messageStart = 0;
+            scanOffset -= delta;
+            requestLineStart -= delta;
+            requestLineEnd -= delta;
+            headersStart -= delta;
+            headerLineStart -= delta;
+            bodyStart -= delta;
+            bodyEnd -= delta;
+            for (int i = 0; i < 4 * headerCount; i++) {
+                headerPositions[i] -= delta;
+            }
+        }
+
+        /**
+         * chunked: 已消费的块长度行等数据[bodyEnd, scanOffset)从读缓存中移除 -> 读缓存只保留解码后的实体 & 未消费的数据
+         */
+        private void compact(XBuffer readerBuffer) {
+            int gap = scanOffset - bodyEnd;
+            if (gap == 0) return;
+            System.arraycopy(readerBuffer.content, scanOffset, readerBuffer.content, bodyEnd, readerBuffer.length - scanOffset);
+            readerBuffer.length -= gap;
+            scanOffset = bodyEnd;
+        }
+
+        /**
+         * 当前报文已输出 -> 下一个报文从start开始
+         */
+        private void resetState(int start) {
+            phase = PHASE_REQUEST_LINE;
+            messageStart = start;
+            scanOffset = start;
+            requestLineStart = start;
+            requestLineEnd = start;
+            headersStart = start;
+            headerLineStart = start;
+            bodyStart = start;
+            bodyEnd = start;
+            contentLength = 0;
+            contentLengthPresent = false;
+            bodyRemaining = 0;
+            chunkRemaining = 0;
+            chunked = false;
+            streaming = false;
+            keepAlive = false;
+            headerCount = 0;
+        }
+    }
+    public static class HttpCodeCFactory implements CodeCFactory {
+        /**
+         * 实体超过该字节数(或chunked)时以流的方式交给XHandler(见{@link HttpBodyChunk}) -1 -> 不使用流式实体
+         */
+        public long streamingBodyThreshold = Container.HTTP_STREAMING_BODY_THRESHOLD;
+
+        @Override
+        public XParser createXReader() {
+            return new DefaultHttpXParser(streamingBodyThreshold);
+        }
+    }
+
+    /**
+     * HTTP报文识别用的字节工具:
+     * 取第一行 -> 作为请求行
+     * 不断取后面行作为header行,并且判断有没有content-length
+     * 取到连续两次\r\n(header与body之间有两行) 作为body (兼容只有\n的换行)
+     * 状态机本身见{@link DefaultHttpXParser}
+     **/
+    public static class HttpUtil {
+        /**
+         * lower case -> header names are matched case-insensitively
+         */
+        static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+
+        static final DateTimeFormatter HTTP_DATE_FORMATTER = DateTimeFormatter
+                .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+                .withZone(ZoneOffset.UTC);
+
+        /**
+         * request line [lineStart, lineEnd) ends with "HTTP/1.0"
+         */
+        static boolean isHttp10(byte[] src, int lineStart, int lineEnd) {
+            int versionIndex = lineEnd - HTTP_1_0.length;
+            return versionIndex >= lineStart && matches(src, versionIndex, HTTP_1_0);
+        }
+
+        /**
+         * @return end of the line content: the index of '\r' before '\n', or of '\n' itself for a bare LF
+         */
+        static int lineContentEnd(byte[] src, int lineStart, int lineFeedIndex) {
+            return lineFeedIndex > lineStart && src[lineFeedIndex - 1] == '\r' ? lineFeedIndex - 1 : lineFeedIndex;
+        }
+
+        /**
+         * digits only, no String, no overflow
+         */
+        static long parseContentLength(byte[] src, int startIndex, int endIndex) throws IOException {
+            if (startIndex == endIndex) throw new IOException("empty Content-Length");
+            long value = 0;
+            for (int index = startIndex; index < endIndex; index++) {
+                int digit = src[index] - '0';
+                if (digit < 0 || digit > 9) throw new IOException("invalid Content-Length");
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE) throw new IOException("Content-Length too large");
+            }
+            return value;
+        }
+
+        /**
+         * chunk size line [startIndex, endIndex) -> hex digits, optionally followed by ";extension"
+         */
+        static long parseChunkSize(byte[] src, int startIndex, int endIndex) throws IOException {
+            long value = 0;
+            int index = startIndex;
+            for (; index < endIndex; index++) {
+                int digit = Character.digit(src[index], 16);
+                if (digit == -1) break;
+                value = (value << 4) + digit;
+                if (value > Integer.MAX_VALUE) throw new IOException("chunk size too large");
+            }
+            if (index == startIndex || (index < endIndex && src[index] != ';' && src[index] != ' ' && src[index] != '\t')) {
+                throw new IOException("invalid chunk size");
+            }
+            return value;
+        }
+
+        static boolean containsIgnoreCase(byte[] src, int startIndex, int endIndex, byte[] value) {
+            for (int index = startIndex; index + value.length <= endIndex; index++) {
+                if (equalsIgnoreCase(src, index, value.length, value)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * value must be lower case
+         */
+        static boolean equalsIgnoreCase(byte[] src, int offset, int length, byte[] value) {
+            if (length != value.length) return false;
+            for (int n = 0; n < length; n++) {
+                int b = src[offset + n];
+                if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+                if (b != value[n]) return false;
+            }
+            return true;
+        }
+
+        static boolean equalsIgnoreCase(byte[] src, int offset, int length, String value) {
+            if (length != value.length()) return false;
+            for (int i = 0; i < length; i++) {
+                int a = src[offset + i];
+                int b = value.charAt(i);
+                if (a == b) continue;
+                if (a >= 'A' && a <= 'Z') a += 'a' - 'A';
+                if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+                if (a != b) return false;
+            }
+            return true;
+        }
+
+        /**
+         * src[offset, offset + length) equals value
+         */
+        static boolean equalsBytes(byte[] src, int offset, int length, byte[] value) {
+            if (length != value.length) return false;
+            for (int i = 0; i < length; i++) {
+                if (src[offset + i] != value[i]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * case-sensitive, value must be ASCII
+         */
+        static boolean equalsAscii(byte[] src, int offset, int length, String value) {
+            if (length != value.length()) return false;
+            for (int i = 0; i < length; i++) {
+                if (src[offset + i] != value.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * query component [startIndex, endIndex) equals value after decoding (%xx & '+')
+         * no allocation for ASCII values
+         */
+        static boolean equalsDecoded(byte[] src, int startIndex, int endIndex, String value) {
+            int n = 0;
+            for (int index = startIndex; index < endIndex; index++, n++) {
+                int b = src[index];
+                if (b == '+') {
+                    b = ' ';
+                } else if (b == '%') {
+                    int decoded = hexPair(src, index, endIndex);
+                    if (decoded != -1) {
+                        b = decoded;
+                        index += 2;
+                    }
+                }
+                if (b < 0 || b >= 0x80) {
+                    // non-ASCII -> compare the decoded string
+                    return decodeQueryComponent(src, startIndex, endIndex).equals(value);
+                }
+                if (n >= value.length() || value.charAt(n) != b) return false;
+            }
+            return n == value.length();
+        }
+
+        /**
+         * decode a query component: '+' -> ' ', %xx -> byte, bytes -> UTF-8
+         */
+        static String decodeQueryComponent(byte[] src, int startIndex, int endIndex) {
+            return decode(src, startIndex, endIndex, true);
+        }
+
+        /**
+         * decode a path component: %xx -> byte ('+' stays as is), bytes -> UTF-8
+         */
+        static String decodePathComponent(byte[] src, int startIndex, int endIndex) {
+            return decode(src, startIndex, endIndex, false);
+        }
+
+        private static String decode(byte[] src, int startIndex, int endIndex, boolean plusAsSpace) {
+            int index = startIndex;
+            while (index < endIndex && src[index] != '%' && (!plusAsSpace || src[index] != '+')) index++;
+            if (index == endIndex) {
+                return new String(src, startIndex, endIndex - startIndex, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[endIndex - startIndex];
+            int length = index - startIndex;
+            System.arraycopy(src, startIndex, bytes, 0, length);
+            for (; index < endIndex; index++) {
+                byte b = src[index];
+                if (b == '+' && plusAsSpace) {
+                    b = ' ';
+                } else if (b == '%') {
+                    int decoded = hexPair(src, index, endIndex);
+                    if (decoded != -1) {
+                        b = (byte) decoded;
+                        index += 2;
+                    }
+                }
+                bytes[length++] = b;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return value of "%xx" at percentIndex, -1 if it is not a valid escape
+         */
+        private static int hexPair(byte[] src, int percentIndex, int endIndex) {
+            if (percentIndex + 2 >= endIndex) return -1;
+            int hi = Character.digit(src[percentIndex + 1], 16);
+            int lo = Character.digit(src[percentIndex + 2], 16);
+            return hi == -1 || lo == -1 ? -1 : (hi << 4) + lo;
+        }
+
+        /**
+         * decode %xx escapes only ('+' stays as is in a path)
+         */
+        static String decodePercent(String src) {
+            if (src.indexOf('%') == -1) return src;
+            byte[] bytes = new byte[src.length()];
+            int length = 0;
+            for (int i = 0; i < src.length(); i++) {
+                char c = src.charAt(i);
+                if (c == '%' && i + 2 < src.length()) {
+                    int hi = Character.digit(src.charAt(i + 1), 16);
+                    int lo = Character.digit(src.charAt(i + 2), 16);
+                    if (hi != -1 && lo != -1) {
+                        bytes[length++] = (byte) ((hi << 4) + lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+                bytes[length++] = (byte) c;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * response without body
+         */
+        static XBuffer simpleResponse(HttpRequest request, int status) {
+            return HttpResponse.of(request, status).noBody();
+        }
+
+        static int findNext(byte[] src, int startIndex, int endIndex, byte value) {
+            for (int index = startIndex; index < endIndex; index++) {
+                if (src[index] == value) return index;
+            }
+            return -1;
+        }
+        private static boolean matches(byte[] src, int offset, byte[] value) {
+            for (int i = offset, n = 0; n < value.length; i++, n++) {
+                if (src[i] != value[n]) return false;
+            }
+            return true;
+        }
+    }
 
     /**
-     * 参考Doug Lea Reactor Pattern
-     * Reactor对象
-     * SSNIOServer 中最核心模块
+     * 路由XHandler: 按 方法 + 路径 把请求交给对应的处理器
      * <p>
-     * 维护:
-     * A 执行业务模型序列化 & 反序列化 & 处理的XHandler
-     * B 监听IO 读 & 写事件的Selector组
-     * C IO Accept 事件产生的XSocket容器connectedSocketsMap
-     * D 记录 待被写入客户端的在途业务数据包对应的XSocket容器activeWritingSocketsMap
-     * E 记录 不再需要监听IO写事件的SocketChannel 的封装对象XSocket容器inactiveWritingSocketsMap
+     * 每个方法一棵压缩前缀树(radix trie) 直接在HttpRequest.content中的路径字节上匹配 -> 不产生String
+     * 匹配开销只与路径长度有关 与注册的路由数量无关
      * <p>
-     * 由单独线程启动 执行"无限次"的循环:
-     * 1 获取所有IO Accept事件产生的SocketChannel -> 向Selector注册读事件的监听
-     * 2 向读事件对应的Selector咨询 产生"IO读事件"对应的SocketChannel, 找到封装对象XSocket-> 执行读取后 委派XParser进行缓存 尝试解析
-     * 3 在上一步成功获取"完整"业务数据包的场景下 执行XHandler 进行 : A 业务数据包载体XBuffer -> 业务模型转换 B业务模型处理 C 业务模型 -> 响应对应的业务数据包载体XBuffer转换
-     * 4 在XHandler产生XBuffer场景下 通过对应xSocketId找到SocketChannel封装对象XSocket后: A 推送XBuffer到对应的DefaultXWriter B 更新XSocket容器组 activeWritingSocketsMap & inactiveWritingSocketsMap
-     * 5 通过XSocket容器组 向写事件对应的Selector更新注册信息(可能再次注册上个循环中注册的成员)
-     * 6 向写事件对应的Selector咨询 产生"IO写事件"对应的SocketChannel, 找到封装对象XSocket-> 委派DefaultXWriter进行写操作
-     * 7 向DefaultXWriter咨询是否还有待写入的业务数据包,更新inactiveWritingSocketsMap信息
-     * 8 下一个循环....
+     * 路由模板:
+     * 静态片段 e.g /users/list
+     * 路径参数 e.g /users/:id -> 匹配一个非空的路径段(到下一个'/'为止)
+     * 通配符 e.g /files/*path (或/files/*) -> 只能在末尾 匹配剩下的全部路径(可以为空)
+     * 同一位置 静态片段 > 路径参数 > 通配符
+     * <p>
+     * 参数的位置记录在HttpRequest中(见{@link HttpRequest#getPathParam(String)}) 取值时才解码
+     * 流式实体(见{@link HttpRequest#streaming})的后续数据段交给同一个处理器
+     * 路由表应在启动前注册完 -> 运行时只读 多个XReactor共享
      */
-    public class XReactor implements Runnable {
-        public XHandler handler;
+    public static class XRouter implements XHandler {
 
-        private Map<String, XSocket> connectedSocketsMap;
-        private Map<String, XSocket> activeWritingSocketsMap;
-        private Map<String, XSocket> inactiveWritingSocketsMap;
+        private static final String[] NO_PARAMS = new String[0];
 
-        private Selector readSelector;
-        private Selector writeSelector;
+        /**
+         * 已注册的方法 & 对应的前缀树 -> 方法不多 顺序查找
+         */
+        private byte[][] methods = new byte[0][];
+        private Node[] roots = new Node[0];
 
-        public XReactor() throws IOException {
-            this.connectedSocketsMap = new HashMap<>();
-            this.activeWritingSocketsMap = new HashMap<>();
-            inactiveWritingSocketsMap = new HashMap<>();
-            this.readSelector = Selector.open();
-            this.writeSelector = Selector.open();
-        }
+        /**
+         * 所有路由中路径参数(包括通配符)的最大个数
+         */
+        private int maxParamCount;
 
-        @Override
-        public void run() {
+        private XHandler notFoundHandler = request -> HttpUtil.simpleResponse((HttpRequest) request, 404);
+        private XHandler methodNotAllowedHandler = request -> HttpUtil.simpleResponse((HttpRequest) request, 405);
 
-            while (true) {
-                try {
-                    /*****************读相关*********************************/
-                    registerAllAcceptedSockets();//步骤1
-                    readReadySockets();//步骤2 & 3 & 4A
-                    /****************写相关*********************************/
-                    refreshWritingSocketsInfo(); //步骤4B
-                    refreshRegistrationOfWringSockets();//步骤5
-                    writeToReadyChannel();//步骤 6 & 7
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        public XRouter get(String pattern, XHandler handler) {
+            return route("GET", pattern, handler);
         }
 
+        public XRouter post(String pattern, XHandler handler) {
+            return route("POST", pattern, handler);
+        }
 
-        /**************************************私有函数*********************************************/
-        private void registerAllAcceptedSockets() throws IOException {
-            XSocket socket = Container.INBOUND_QUEUE.poll();
+        public XRouter put(String pattern, XHandler handler) {
+            return route("PUT", pattern, handler);
+        }
 
-            while (socket != null) {
-                SelectionKey sk = socket.socketChannel
-                        .register(readSelector, SelectionKey.OP_READ);
+        public XRouter delete(String pattern, XHandler handler) {
+            return route("DELETE", pattern, handler);
+        }
 
-                sk.attach(socket);
-                this.connectedSocketsMap.put(socket.xSocketId, socket);
-                socket = Container.INBOUND_QUEUE.poll();
+        /**
+         * @param method  区分大小写 e.g "GET"
+         * @param pattern 以'/'开头的路由模板
+         * @throws IllegalArgumentException 模板不合法 / 重复注册
+         */
+        public XRouter route(String method, String pattern, XHandler handler) {
+            if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+                throw new IllegalArgumentException("route pattern must start with '/': " + pattern);
+            }
+            Node node = rootOf(method.getBytes(StandardCharsets.US_ASCII));
+            List<String> paramNames = new ArrayList<>();
+
+            int index = 0;
+            while (index < pattern.length()) {
+                char c = pattern.charAt(index);
+                if (c == ':') {
+                    int end = pattern.indexOf('/', index);
+                    if (end == -1) end = pattern.length();
+                    if (end == index + 1) throw new IllegalArgumentException("empty parameter name: " + pattern);
+                    paramNames.add(pattern.substring(index + 1, end));
+                    if (node.paramChild == null) node.paramChild = new Node(new byte[0]);
+                    node = node.paramChild;
+                    index = end;
+                } else if (c == '*') {
+                    if (pattern.indexOf('/', index) != -1) {
+                        throw new IllegalArgumentException("wildcard must be the last segment: " + pattern);
+                    }
+                    paramNames.add(index + 1 == pattern.length() ? "*" : pattern.substring(index + 1));
+                    if (node.wildcardChild == null) node.wildcardChild = new Node(new byte[0]);
+                    node = node.wildcardChild;
+                    index = pattern.length();
+                } else {
+                    int end = index;
+                    while (end < pattern.length() && pattern.charAt(end) != ':' && pattern.charAt(end) != '*') end++;
+                    node = node.insertStatic(pattern.substring(index, end).getBytes(StandardCharsets.UTF_8));
+                    index = end;
+                }
             }
+
+            if (node.handler != null) throw new IllegalArgumentException("duplicate route: " + method + " " + pattern);
+            node.handler = handler;
+            node.paramNames = paramNames.isEmpty() ? NO_PARAMS : paramNames.toArray(new String[0]);
+            maxParamCount = Math.max(maxParamCount, paramNames.size());
+            return this;
         }
 
-        private void readReadySockets() throws IOException {
-            int selectedCount = readSelector.selectNow();
+        /**
+         * 没有匹配的路由时(默认404)
+         */
+        public XRouter notFound(XHandler handler) {
+            this.notFoundHandler = handler;
+            return this;
+        }
 
-            if (selectedCount > 0) {
-                Set<SelectionKey> selectionKeys = readSelector.selectedKeys();
-                Iterator<SelectionKey> it = selectionKeys.iterator();
+        /**
+         * 路径匹配 但方法没有注册时(默认405)
+         */
+        public XRouter methodNotAllowed(XHandler handler) {
+            this.methodNotAllowedHandler = handler;
+            return this;
+        }
 
-                while (it.hasNext()) {
-                    SelectionKey nextSelectionKey = it.next();
-                    XSocket xSocket = (XSocket) nextSelectionKey.attachment();
+        @Override
+        public XBuffer handle(XBuffer reqBuffer) {
+            if (reqBuffer instanceof HttpBodyChunk) {
+                XSocket xSocket = reqBuffer.xSocket;
+                XHandler bodyHandler = xSocket == null ? null : xSocket.bodyHandler;
+                if (bodyHandler == null) return null;
+                if (((HttpBodyChunk) reqBuffer).last) xSocket.bodyHandler = null;
+                return bodyHandler.handle(reqBuffer);
+            }
 
-                    xSocket.read();
-                    List<XBuffer> completeMsgBufferBlocks = xSocket.xParser.getOutputs();
+            HttpRequest request = (HttpRequest) reqBuffer;
+            XHandler handler = route(request);
+            if (request.streaming && reqBuffer.xSocket != null) {
+                reqBuffer.xSocket.bodyHandler = handler;
+            }
+            return handler.handle(request);
+        }
 
-                    if (/**本次IO读事件下解析出完整的业务数据包**/completeMsgBufferBlocks.size() > 0) {
-                        if (handler != null) {
-                            /**执行XHandler 进行 :
-                             *  A 业务数据包载体XBuffer -> 业务模型转换
-                             *  B 业务模型处理
-                             *  C 业务模型 -> 响应对应的业务数据包载体XBuffer转换**/
-                            completeMsgBufferBlocks
-                                    .stream()
-                                    .map(handler::handle)
-                                    .forEach(Container.OUTBOUND_QUEUE::offer);
-                            completeMsgBufferBlocks.clear();
-                        }
-                    }
-                    it.remove();
+        /**
+         * 匹配请求 -> 路径参数的位置记录到request中
+         *
+         * @return 匹配的处理器 没有时返回notFound/methodNotAllowed处理器
+         */
+        public XHandler route(HttpRequest request) {
+            byte[] src = request.content;
+            int pathStart = request.getPathOffset();
+            int pathEnd = pathStart + request.getPathLength();
+            int[] positions = maxParamCount == 0 ? null : new int[2 * maxParamCount];
+
+            Node root = null;
+            for (int i = 0; i < methods.length; i++) {
+                if (HttpUtil.equalsBytes(src, request.getMethodOffset(), request.getMethodLength(), methods[i])) {
+                    root = roots[i];
+                    break;
+                }
+            }
+            Node matched = root == null ? null : root.match(src, pathStart, pathEnd, positions, 0);
+            if (matched != null) {
+                request.pathParamNames = matched.paramNames;
+                request.pathParamPositions = positions;
+                request.pathParamCount = matched.paramNames.length;
+                return matched.handler;
+            }
+
+            // 其他方法下有该路径 -> 405
+            for (Node other : roots) {
+                if (other != root && other.match(src, pathStart, pathEnd, positions, 0) != null) {
+                    return methodNotAllowedHandler;
                 }
-                selectionKeys.clear();
             }
+            return notFoundHandler;
         }
 
-        private void refreshWritingSocketsInfo() {
-            XBuffer completeMsgBufferBlock = Container.OUTBOUND_QUEUE.poll();
+        private Node rootOf(byte[] method) {
+            for (int i = 0; i < methods.length; i++) {
+                if (Arrays.equals(methods[i], method)) return roots[i];
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            roots = Arrays.copyOf(roots, roots.length + 1);
+            methods[methods.length - 1] = method;
+            roots[roots.length - 1] = new Node(new byte[0]);
+            return roots[roots.length - 1];
+        }
 
-            while (completeMsgBufferBlock != null) {
-                String xSocketId = completeMsgBufferBlock.xSocketId;
-                XSocket associatedSocket = connectedSocketsMap.get(xSocketId);
+        /**
+         * 前缀树节点
+         * prefix -> 该节点的静态字节(压缩后可能跨越多个路径段)
+         * 静态子节点按首字节查找(indices[i] 对应 children[i])
+         * paramChild -> 匹配一个路径段 wildcardChild -> 匹配剩下的全部路径
+         * handler != null -> 有路由在此结束
+         */
+        private static class Node {
+            private byte[] prefix;
+            private byte[] indices = new byte[0];
+            private Node[] children = new Node[0];
+            private Node paramChild;
+            private Node wildcardChild;
+            private XHandler handler;
+            private String[] paramNames;
+
+            private Node(byte[] prefix) {
+                this.prefix = prefix;
+            }
 
-                associatedSocket.xWriter
-                        .enqueue(completeMsgBufferBlock);
-                activeWritingSocketsMap.put(xSocketId, associatedSocket);
-                inactiveWritingSocketsMap.remove(xSocketId);
+            /**
+             * 插入静态字节 必要时拆分已有节点
+             *
+             * @return 静态字节结束处的节点
+             */
+            private Node insertStatic(byte[] bytes) {
+                Node node = this;
+                int index = 0;
+                while (index < bytes.length) {
+                    Node child = node.childOf(bytes[index]);
+                    if (child == null) {
+                        child = new Node(Arrays.copyOfRange(bytes, index, bytes.length));
+                        node.addChild(child);
+                        return child;
+                    }
+                    int common = 0;
+                    while (common < child.prefix.length && index + common < bytes.length
+                            && child.prefix[common] == bytes[index + common]) {
+                        common++;
+                    }
+                    if (common < child.prefix.length) child.split(common);
+                    index += common;
+                    node = child;
+                }
+                return node;
+            }
 
-                completeMsgBufferBlock = Container.OUTBOUND_QUEUE.poll();
+            /**
+             * 在prefix[at]处拆分: 本节点保留前半段 后半段及原有的子节点/路由移到新的子节点
+             */
+            private void split(int at) {
+                Node tail = new Node(Arrays.copyOfRange(prefix, at, prefix.length));
+                tail.indices = indices;
+                tail.children = children;
+                tail.paramChild = paramChild;
+                tail.wildcardChild = wildcardChild;
+                tail.handler = handler;
+                tail.paramNames = paramNames;
+
+                prefix = Arrays.copyOf(prefix, at);
+                indices = new byte[]{tail.prefix[0]};
+                children = new Node[]{tail};
+                paramChild = null;
+                wildcardChild = null;
+                handler = null;
+                paramNames = null;
             }
-        }
 
-        private void refreshRegistrationOfWringSockets() throws IOException {
-            Collection<XSocket> activeSockets = activeWritingSocketsMap.values();
-            /**可能会重复注册上个循环中已注册的SocketChannel**/
-            for (XSocket socket : activeSockets) {
-                SelectionKey sk = socket.socketChannel.
-                        register(writeSelector, SelectionKey.OP_WRITE);
-                sk.attach(socket);
+            private Node childOf(byte first) {
+                for (int i = 0; i < indices.length; i++) {
+                    if (indices[i] == first) return children[i];
+                }
+                return null;
             }
-            activeWritingSocketsMap.clear();
-            Collection<XSocket> inactiveSockets = inactiveWritingSocketsMap.values();
-            for (XSocket socket : inactiveSockets) {
-                SelectionKey sk = socket.socketChannel.keyFor(writeSelector);
-                sk.cancel();
+
+            private void addChild(Node child) {
+                indices = Arrays.copyOf(indices, indices.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                indices[indices.length - 1] = child.prefix[0];
+                children[children.length - 1] = child;
             }
-            inactiveWritingSocketsMap.clear();
-        }
 
-        private void writeToReadyChannel() throws IOException {
-            int selectedCount = writeSelector.selectNow();
-            if (selectedCount > 0) {
-                Set<SelectionKey> selectionKeys = writeSelector.selectedKeys();
-                Iterator<SelectionKey> it = selectionKeys.iterator();
-                while (it.hasNext()) {
-                    SelectionKey selectionKey = it.next();
-                    XSocket writableXSocket = (XSocket) selectionKey.attachment();
+            /**
+             * 本节点的prefix已匹配 继续匹配src[index, end)
+             *
+             * @param positions  路径参数的位置(每个参数占2个int: 起始 结束)
+             * @param paramIndex 已匹配的参数个数
+             * @return 路由结束的节点 不匹配时返回null
+             */
+            private Node match(byte[] src, int index, int end, int[] positions, int paramIndex) {
+                if (index == end && handler != null) return this;
+
+                if (index < end) {
+                    Node child = childOf(src[index]);
+                    if (child != null && end - index >= child.prefix.length
+                            && HttpUtil.equalsBytes(src, index, child.prefix.length, child.prefix)) {
+                        Node matched = child.match(src, index + child.prefix.length, end, positions, paramIndex);
+                        if (matched != null) return matched;
+                    }
 
-                    writableXSocket.write();
-                    if (writableXSocket.xWriter.isEmpty()) {
-                        inactiveWritingSocketsMap.put(writableXSocket.xSocketId, writableXSocket);
+                    if (paramChild != null) {
+                        int segmentEnd = HttpUtil.findNext(src, index, end, (byte) '/');
+                        if (segmentEnd == -1) segmentEnd = end;
+                        if (segmentEnd > index) {
+                            Node matched = paramChild.match(src, segmentEnd, end, positions, paramIndex + 1);
+                            if (matched != null) {
+                                positions[2 * paramIndex] = index;
+                                positions[2 * paramIndex + 1] = segmentEnd;
+                                return matched;
+                            }
+                        }
                     }
-                    it.remove();
                 }
-                selectionKeys.clear();
+
+                if (wildcardChild != null && wildcardChild.handler != null) {
+                    positions[2 * paramIndex] = index;
+                    positions[2 * paramIndex + 1] = end;
+                    return wildcardChild;
+                }
+                return null;
             }
         }
     }
 
-
     /**
-     * {@code XBuffer} 一款简单的缓存设计:
-     * 考虑点 -> A.弹性 B.性能
-     * 基于传输层的任何自定义协议下的业务数据包都可以用二进制数组表示(byte[] 代码层面的表示)
-     * NIO 的特征: 每次读取的数据不一定能decode成一个完整的业务数据包(粘包....拆包....)
-     * 使用每个channel维护 读 & 写对应的缓存的方式解决
-     * 读:配合特定协议下的业务数据包检查组件 -> 判断 & 反序列化业务数据包
-     * 写:配合记录写位置的指针 -> 下一次写事件时resume上次步骤
+     * 静态资源提供者 -> 内置的XHandler
+     * 请求路径映射到根目录下的文件:
+     * 文件内容由{@link FileXBuffer}承载 -> DefaultXWriter通过FileChannel.transferTo(sendfile)直接写入SocketChannel
+     * 大文件下载既不占用堆内存 也没有用户态拷贝
      * <p>
-     * 转化:
-     * 支持byte[] -> XBuffer
-     * 支持ByteBuffer[] -> XBuffer
+     * 支持:
+     * GET & HEAD
+     * 目录 -> index.html
+     * If-Modified-Since -> 304
+     * Range: bytes=a-b / a- / -n (单个区间) -> 206 无法满足 -> 416
      * <p>
-     * 关联:
-     * 一对读/写XBuffer可对应一个NIO Channel
-     * 一个XBuffer可对应一个或N(N可以不是整数)个特定协议下的完整业务数据包的二进制数据
+     * 可选的{@link StaticResourceCache}: 小文件的完整响应常驻内存 -> 命中时不需要open()/stat() 也不需要拷贝
      */
-    public static class XBuffer {
+    public static class StaticFileXHandler implements XHandler {
+
+        private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+        static {
+            CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+            CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+            CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+            CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+            CONTENT_TYPES.put("json", "application/json; charset=utf-8");
+            CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+            CONTENT_TYPES.put("xml", "application/xml; charset=utf-8");
+            CONTENT_TYPES.put("svg", "image/svg+xml");
+            CONTENT_TYPES.put("png", "image/png");
+            CONTENT_TYPES.put("jpg", "image/jpeg");
+            CONTENT_TYPES.put("jpeg", "image/jpeg");
+            CONTENT_TYPES.put("gif", "image/gif");
+            CONTENT_TYPES.put("ico", "image/x-icon");
+            CONTENT_TYPES.put("webp", "image/webp");
+            CONTENT_TYPES.put("woff", "font/woff");
+            CONTENT_TYPES.put("woff2", "font/woff2");
+            CONTENT_TYPES.put("pdf", "application/pdf");
+            CONTENT_TYPES.put("wasm", "application/wasm");
+            CONTENT_TYPES.put("mp4", "video/mp4");
+        }
+
         /**
-         * 客户端连接关联字段
+         * 静态资源根目录
          */
-        public String xSocketId;
+        private final Path root;
+
         /**
-         * 数据载体 可能有冗余空间
+         * 热点资源缓存 -> null时不缓存
          */
-        public byte[] content;
+        private final StaticResourceCache cache;
+
+        public StaticFileXHandler(Path root) {
+            this(root, null);
+        }
+
+        public StaticFileXHandler(Path root, StaticResourceCache cache) {
+            this.root = root.toAbsolutePath().normalize();
+            this.cache = cache;
+        }
+
+        @Override
+        public XBuffer handle(XBuffer reqBuffer) {
+            HttpRequest request = (HttpRequest) reqBuffer;
+            if (request.getPathLength() == 0) {
+                return HttpUtil.simpleResponse(request, 400);
+            }
+            boolean head = request.isMethod("HEAD");
+            if (!head && !request.isMethod("GET")) {
+                return HttpUtil.simpleResponse(request, 405);
+            }
+
+            String uriPath = request.getPath();
+            String range = request.getHeader("Range");
+            if (cache != null && range == null) {
+                StaticResourceCache.CachedResource cached = cache.get(uriPath);
+                if (cached != null) {
+                    return cachedResponse(request, cached, head);
+                }
+            }
+
+            Path file = resolve(uriPath);
+            if (file == null) {
+                return HttpUtil.simpleResponse(request, 404);
+            }
+
+            try {
+                long fileLength = Files.size(file);
+                long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+                if (cache != null && range == null && cache.isCacheable(fileLength)) {
+                    byte[] body = Files.readAllBytes(file);
+                    String contentType = contentTypeOf(file);
+                    HttpResponse response = HttpResponse.of(request, 200)
+                            .contentType(contentType)
+                            .header(HttpResponse.LAST_MODIFIED, HttpUtil.HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(lastModified)))
+                            .header(HttpResponse.ACCEPT_RANGES, HttpResponse.BYTES);
+                    if (XCompression.isCompressible(contentType, body.length)) {
+                        response.header(HttpResponse.VARY, HttpResponse.ACCEPT_ENCODING);
+                    }
+                    XBuffer headers = response.sharedHead(body.length);
+                    StaticResourceCache.CachedResource cached;
+                    try {
+                        cached = cache.put(uriPath, file, headers, body, contentType, lastModified);
+                    } finally {
+                        headers.release();
+                    }
+                    return cachedResponse(request, cached, head);
+                }
+
+                if (notModifiedSince(request.getHeader("If-Modified-Since"), lastModified)) {
+                    return notModified(request);
+                }
+
+                long start = 0;
+                long count = fileLength;
+                long[] region = range == null ? null : parseRange(range, fileLength);
+                if (range != null && region == null) {
+                    return HttpResponse.of(request, 416)
+                            .header(HttpResponse.CONTENT_RANGE, "bytes */" + fileLength)
+                            .noBody();
+                }
+                boolean partial = region != null && region.length == 2;
+                HttpResponse response = HttpResponse.of(request, partial ? 206 : 200)
+                        .contentType(contentTypeOf(file));
+                if (partial) {
+                    start = region[0];
+                    count = region[1] - region[0] + 1;
+                    response.header(HttpResponse.CONTENT_RANGE, "bytes " + region[0] + "-" + region[1] + "/" + fileLength);
+                }
+                response.header(HttpResponse.LAST_MODIFIED, HttpUtil.HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(lastModified)))
+                        .header(HttpResponse.ACCEPT_RANGES, HttpResponse.BYTES);
+
+                FileChannel fileChannel = head || count == 0 ? null : FileChannel.open(file, StandardOpenOption.READ);
+                XBuffer headers = response.head(count);
+                if (fileChannel == null) {
+                    return headers;
+                }
+
+                FileXBuffer fileXBuffer = new FileXBuffer(fileChannel, start, count);
+                fileXBuffer.xSocketId = request.xSocketId;
+                fileXBuffer.cache(headers.content, 0, headers.length);
+                headers.release();
+                return fileXBuffer;
+            } catch (IOException e) {
+                return HttpUtil.simpleResponse(request, 500);
+            }
+        }
 
         /**
-         * 逻辑数据长度
+         * 命中缓存 -> 直接包装缓存中的byte[] 不拷贝
+         * HEAD -> 只写出首部部分
+         * 缓存的首部与实体之间按请求插入Date(& Connection: close) -> GatheringXBuffer
+         * 客户端接受压缩 -> 压缩结果来自XCompression的缓存(同一文件内容只压缩一次)
          */
-        public int length;
+        private static XBuffer cachedResponse(HttpRequest request, StaticResourceCache.CachedResource cached, boolean head) {
+            if (notModifiedSince(request.getHeader("If-Modified-Since"), cached.lastModified)) {
+                return notModified(request);
+            }
+            if (!head && XCompression.isCompressible(cached.contentType, cached.fileLength)) {
+                int encoding = XCompression.negotiate(request);
+                if (encoding != XCompression.IDENTITY) {
+                    byte[] compressed = XCompression.compressCached(cached.response, cached.headersLength, (int) cached.fileLength, encoding);
+                    return HttpResponse.of(request, 200)
+                            .contentType(cached.contentType)
+                            .header(HttpResponse.LAST_MODIFIED, cached.lastModifiedStr)
+                            .header(HttpResponse.VARY, HttpResponse.ACCEPT_ENCODING)
+                            .header(HttpResponse.CONTENT_ENCODING, XCompression.nameOf(encoding))
+                            .encodedBody(compressed, 0, compressed.length);
+                }
+            }
+            int length = head ? cached.headersLength : cached.response.length;
+            int headersEnd = cached.headersLength - 2;
+            ByteBuffer headers = ByteBuffer.wrap(cached.response, 0, headersEnd);
+            ByteBuffer date = ByteBuffer.wrap(HttpResponse.dateLine());
+            ByteBuffer rest = ByteBuffer.wrap(cached.response, headersEnd, length - headersEnd);
+            GatheringXBuffer xBuffer = request.keepAlive
+                    ? new GatheringXBuffer(headers, date, rest)
+                    : new GatheringXBuffer(headers, date, ByteBuffer.wrap(HttpResponse.CONNECTION_CLOSE), rest);
+            xBuffer.xSocketId = request.xSocketId;
+            return xBuffer;
+        }
 
         /**
-         * 构造函数 初始化数据逻辑长度指针 & 内部byte[]大小
+         * 304不需要Last-Modified(RFC 7232 4.1) -> 不格式化日期
          */
-        public XBuffer() {
-            content = new byte[Container.X_BUFFER_INITIAL_SIZE];
-            length = 0;
+        private static XBuffer notModified(HttpRequest request) {
+            return HttpResponse.of(request, 304).head(-1);
         }
 
         /**
-         * 使内部byte[]无冗余空间
-         * 此时内部成员length == content.length
+         * 请求路径(不含查询字符串) -> 根目录下的文件
+         * 解码%xx 拒绝跳出根目录的路径
+         *
+         * @return 文件不存在/不可读时返回null
          */
-        public void trim() {
-            trim(0, length);
+        protected Path resolve(String uriPath) {
+            String path = HttpUtil.decodePercent(uriPath);
+            while (path.startsWith("/")) path = path.substring(1);
+
+            Path file = root.resolve(path).normalize();
+            if (!file.startsWith(root)) return null;
+            if (Files.isDirectory(file)) file = file.resolve("index.html");
+            if (!Files.isRegularFile(file) || !Files.isReadable(file)) return null;
+            return file;
+        }
+
+        protected String contentTypeOf(Path file) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            String contentType = dot == -1 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            return contentType == null ? "application/octet-stream" : contentType;
+        }
+
+        private static boolean notModifiedSince(String ifModifiedSince, long lastModified) {
+            if (ifModifiedSince == null) return false;
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
         }
 
         /**
-         * 以offset作为起始点裁剪内部byte[]
+         * 只支持单个区间 -> 多区间(multipart/byteranges)时忽略Range返回完整文件
+         * 语法无效的区间(e.g last < first 见RFC 7233 2.1) -> 忽略Range
          *
-         * @param offset 起始偏移量
-         * @param length 裁剪长度
+         * @return {first, last} / 空数组 -> 忽略Range / null -> 无法满足(first >= 文件长度)
          */
-        public void trim(Integer offset, Integer length) {
+        private static long[] parseRange(String range, long fileLength) {
+            if (!range.startsWith("bytes=") || range.indexOf(',') != -1) return new long[0];
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) return new long[0];
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    long suffixLength = parseRangeNumber(spec.substring(1));
+                    if (suffixLength == 0) return null;
+                    first = Math.max(0, fileLength - suffixLength);
+                    last = fileLength - 1;
+                } else {
+                    first = parseRangeNumber(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        last = fileLength - 1;
+                    } else {
+                        last = parseRangeNumber(spec.substring(dash + 1));
+                        if (/**语法无效 -> 忽略Range**/last < first) return new long[0];
+                        last = Math.min(last, fileLength - 1);
+                    }
+                }
+                if (first >= fileLength) return null;
+                return new long[]{first, last};
+            } catch (NumberFormatException e) {
+                return new long[0];
+            }
+        }
 
-            byte[] desc = new byte[length];
-            System.arraycopy(content, offset, desc, 0, length);
-            content = desc;
-            this.length = length;
+        /**
+         * 区间的位置只能是数字(1*DIGIT) -> Long.parseLong接受的正负号(e.g "bytes=--5")也视为语法无效
+         */
+        private static long parseRangeNumber(String value) {
+            if (value.isEmpty() || value.charAt(0) < '0' || value.charAt(0) > '9') {
+                throw new NumberFormatException("invalid range position: " + value);
+            }
+            return Long.parseLong(value);
+        }
+
+    }
+
+    /**
+     * 热点静态资源缓存 -> 配合{@link StaticFileXHandler}使用
+     * 每个缓存项保存一个预先构建好的完整响应(响应行 & 首部 & 文件内容 在同一个byte[]中 首部由HttpResponse.sharedHead编码)
+     * 命中时响应直接包装该byte[](只按请求插入Date等首部) -> 不需要open()/stat() 不需要拷贝 不需要编码
+     * <p>
+     * 容量: 按缓存的总字节数限制 超出时按LRU淘汰 超过单项上限的文件不缓存(走sendfile)
+     * 失效: 距上次检查超过checkIntervalMillis时 检查一次文件的mtime & 大小 -> 变化/删除则失效
+     * 统计: 命中 未命中 淘汰 次数
+     * <p>
+     * 多个Reactor线程共享 -> 内部同步
+     */
+    public static class StaticResourceCache {
+
+        public static class CachedResource {
+            final Path file;
+            /**
+             * 完整响应 [0, headersLength)为响应行 & 首部(不含Date & Connection 以空行结尾)
+             */
+            final byte[] response;
+            final int headersLength;
+            final String contentType;
+            final long lastModified;
+            final String lastModifiedStr;
+            final long fileLength;
+            volatile long checkedAt;
+
+            CachedResource(Path file, byte[] response, int headersLength, String contentType, long lastModified, long fileLength) {
+                this.file = file;
+                this.response = response;
+                this.headersLength = headersLength;
+                this.contentType = contentType;
+                this.lastModified = lastModified;
+                this.lastModifiedStr = HttpUtil.HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(lastModified));
+                this.fileLength = fileLength;
+                this.checkedAt = System.currentTimeMillis();
+            }
         }
 
+        private final long maxBytes;
+        private final long maxEntryBytes;
+        private final long checkIntervalMillis;
 
         /**
-         * 在原有的数据基础上缓存byte[]
-         * 内部byte[]不够时 -> 扩容为2倍
+         * accessOrder = true -> 迭代顺序即LRU顺序
+         */
+        private final LinkedHashMap<String, CachedResource> resources = new LinkedHashMap<>(64, 0.75f, true);
+        private long cachedBytes;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        public StaticResourceCache() {
+            this(Container.STATIC_CACHE_MAX_BYTES, Container.STATIC_CACHE_MAX_ENTRY_BYTES, Container.STATIC_CACHE_CHECK_INTERVAL_MILLIS);
+        }
+
+        public StaticResourceCache(long maxBytes, long maxEntryBytes, long checkIntervalMillis) {
+            this.maxBytes = maxBytes;
+            this.maxEntryBytes = maxEntryBytes;
+            this.checkIntervalMillis = checkIntervalMillis;
+        }
+
+        /**
+         * @param uriPath 请求路径(不含查询字符串)
+         * @return 未缓存/已失效时返回null
+         */
+        public CachedResource get(String uriPath) {
+            CachedResource cached;
+            synchronized (this) {
+                cached = resources.get(uriPath);
+            }
+            if (cached == null) {
+                misses.increment();
+                return null;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - cached.checkedAt >= checkIntervalMillis) {
+                if (!isUnchanged(cached)) {
+                    remove(uriPath, cached);
+                    misses.increment();
+                    return null;
+                }
+                cached.checkedAt = now;
+            }
+            hits.increment();
+            return cached;
+        }
+
+        public boolean isCacheable(long fileLength) {
+            return fileLength <= maxEntryBytes && fileLength <= maxBytes;
+        }
+
+        /**
+         * 缓存 首部 + 文件内容 -> 超出总字节数上限时淘汰最久未访问的缓存项
          *
-         * @param src 缓存的byte[]
+         * @param headers 不含Date & Connection的响应行 & 首部(见{@link HttpResponse#sharedHead(long)}) 拷贝后可以归还
          */
-        public void cache(byte[] src) {
-            int remainBytes = src.length;
-            while (length + remainBytes > content.length) {
-                expend2Double();
+        public CachedResource put(String uriPath, Path file, XBuffer headers, byte[] body, String contentType, long lastModified) {
+            byte[] response = new byte[headers.length + body.length];
+            System.arraycopy(headers.content, 0, response, 0, headers.length);
+            System.arraycopy(body, 0, response, headers.length, body.length);
+            CachedResource cached = new CachedResource(file, response, headers.length, contentType, lastModified, body.length);
+
+            synchronized (this) {
+                CachedResource previous = resources.put(uriPath, cached);
+                if (previous != null) cachedBytes -= previous.response.length;
+                cachedBytes += response.length;
+
+                Iterator<CachedResource> it = resources.values().iterator();
+                while (cachedBytes > maxBytes && it.hasNext()) {
+                    CachedResource eldest = it.next();
+                    if (eldest == cached) continue;
+                    it.remove();
+                    cachedBytes -= eldest.response.length;
+                    evictions.increment();
+                }
             }
+            return cached;
+        }
 
-            System.arraycopy(src, 0, content, length, remainBytes);
-            length += remainBytes;
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public synchronized long getCachedBytes() {
+            return cachedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "StaticResourceCache{hits=" + getHits() + ", misses=" + getMisses()
+                    + ", evictions=" + getEvictions() + ", cachedBytes=" + getCachedBytes() + "}";
+        }
+
+        private static boolean isUnchanged(CachedResource cached) {
+            try {
+                return Files.getLastModifiedTime(cached.file).toMillis() == cached.lastModified
+                        && Files.size(cached.file) == cached.fileLength;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private synchronized void remove(String uriPath, CachedResource cached) {
+            if (resources.get(uriPath) == cached) {
+                resources.remove(uriPath);
+                cachedBytes -= cached.response.length;
+            }
         }
+    }
+
+    //**********************************基准 & 压测********************************************************
 
+    /**
+     * 对数分桶直方图(HdrHistogram的做法): 每个2的幂区间再线性分成64个子桶 -> 相对误差 < 1/64
+     * 记录/合并都是O(1)的数组操作 不产生对象 -> 可以在热点路径上使用
+     * 单线程写入 其他线程读取时需要自行同步(或先copy())
+     */
+    public static class XHistogram {
         /**
-         * @see awesome.yk.all.in.one.SSNIOServer.XBuffer#cache(byte[])
-         * 重载实现
+         * 子桶数 = 2^SUB_BUCKET_BITS [0, 2 * SUB_BUCKET_HALF)的值每个值一个桶
          */
-        public void cache(ByteBuffer src) {
-            int remainBytes = src.remaining();
-            while (length + remainBytes > content.length) {
-                expend2Double();
+        private static final int SUB_BUCKET_BITS = 7;
+        private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+        private static final int BUCKET_COUNT = SUB_BUCKET_HALF * (64 - SUB_BUCKET_BITS + 2);
+
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long totalCount;
+        private long max;
+        private long min = Long.MAX_VALUE;
+        private long sum;
+
+        /**
+         * @param value 非负(负数按0记录)
+         */
+        public void record(long value) {
+            if (value < 0) value = 0;
+            counts[indexOf(value)]++;
+            totalCount++;
+            sum += value;
+            if (value > max) max = value;
+            if (value < min) min = value;
+        }
+
+        public void add(XHistogram other) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += other.counts[i];
             }
+            totalCount += other.totalCount;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+            min = Math.min(min, other.min);
+        }
+
+        public XHistogram copy() {
+            XHistogram copy = new XHistogram();
+            copy.add(this);
+            return copy;
+        }
+
+        public void reset() {
+            Arrays.fill(counts, 0);
+            totalCount = 0;
+            sum = 0;
+            max = 0;
+            min = Long.MAX_VALUE;
+        }
+
+        /**
+         * @param percentile 0 ~ 100 e.g 99.9
+         * @return 不小于percentile%记录值的值(所在桶的上界 不超过max)
+         */
+        public long percentile(double percentile) {
+            if (totalCount == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(totalCount * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= target) return Math.min(highestOf(i), max);
+            }
+            return max;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMin() {
+            return totalCount == 0 ? 0 : min;
+        }
 
-            src.get(content, length, remainBytes);
-            length += remainBytes;
+        public double getMean() {
+            return totalCount == 0 ? 0 : (double) sum / totalCount;
         }
 
+        public long getSum() {
+            return sum;
+        }
 
         /**
-         * 逻辑数据长度 & 内部byte[] -> GC ROOT 不再指向原来维护的内部byte[]
+         * @param unit 输出时除以unit(e.g 纳秒 -> 微秒 1000)
          */
-        public void reset() {
-            content = new byte[Container.X_BUFFER_INITIAL_SIZE];
-            length = 0;
+        public String summary(long unit) {
+            return String.format(Locale.ROOT, "count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                    totalCount, getMean() / unit, (double) percentile(50) / unit, (double) percentile(90) / unit,
+                    (double) percentile(99) / unit, (double) percentile(99.9) / unit, (double) max / unit);
         }
 
         /**
-         * 扩展内部的byte[]为2倍
+         * [0, 128) -> 每个值一个桶
+         * 之后每个2的幂区间[2^k, 2^(k+1)) -> 64个桶 桶宽2^(k-6)
          */
-        private void expend2Double() {
-            byte[] desc;
-            if (content.length < Container.X_BUFFER_INITIAL_SIZE) {
-                desc = new byte[Container.X_BUFFER_INITIAL_SIZE];
-            } else {
-                desc = new byte[content.length * 2];
-            }
-
-            System.arraycopy(content, 0, desc, 0, length);
-            content = desc;
+        private static int indexOf(long value) {
+            if (value < 2 * SUB_BUCKET_HALF) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+            return SUB_BUCKET_HALF * shift + (int) (value >>> shift);
         }
 
+        /**
+         * @return 桶中最大的值
+         */
+        private static long highestOf(int index) {
+            if (index < 2 * SUB_BUCKET_HALF) return index;
+            int shift = index / SUB_BUCKET_HALF - 1;
+            long subBucket = index - (long) SUB_BUCKET_HALF * shift;
+            return ((subBucket + 1) << shift) - 1;
+        }
     }
 
-
     /**
-     * 关联 -> 一个维护NIO连接的 SocketChannel
-     * 通用的 跨协议的Writer
-     * 响应用的业务数据包对应一个弱类型XBuffer对象
+     * 微基准 -> 不依赖JMH(整个服务器只有一个类文件 不引入构建文件 & 第三方依赖)
+     * 运行: java -cp <classes> 'SSNIOServer$XBench' [基准名前缀...] [--time 每轮毫秒数] [--rounds 轮数] [--dir 结果目录] [--baseline 结果文件]
+     * <p>
+     * 每个基准: 预热 -> 多轮测量(每轮固定时长 按批调用减少计时开销) -> ns/op(平均 ± 标准差)
+     * 每次操作分配的字节数由ThreadMXBean统计(相当于JMH的-prof gc) 声明了每次操作处理的字节数时同时输出MB/s
+     * 结果保存到 结果目录/xbench-<时间>.properties -> 下次运行时与最近一次(或--baseline指定的)结果比较
+     * <p>
+     * 单JVM 不fork -> 不同基准之间可能影响JIT的决定 比较结果时用同样的参数运行同样的基准集合
      */
-    public class DefaultXWriter {
+    public static class XBench {
 
-        /**
-         * 在途用于响应的业务数据包队列
-         */
-        private Queue<XBuffer> respQueue;
+        private static final byte[] SMALL_GET = ascii("GET /index.html?x=1 HTTP/1.1\r\n"
+                + "Host: localhost:8080\r\n"
+                + "User-Agent: xbench\r\n"
+                + "Accept: */*\r\n"
+                + "\r\n");
+
+        private static final byte[] LARGE_HEADERS = largeHeadersRequest();
+
+        private static final byte[] PIPELINED = repeat(SMALL_GET, 16);
+
+        private static final byte[] POST_BODY = postRequest(1024);
 
         /**
-         * 当前在途用于响应的业务数据包
+         * 防止JIT消除没有使用的结果
          */
-        private XBuffer inFlyRespBuffer;
+        private static volatile long sink;
 
         /**
-         * 记录当前在途用于响应的业务数据包
-         * 在累计的IO 写事件中
-         * 写了多少数据的偏移量指针
+         * 一个基准: setUp() -> 反复调用op() -> tearDown()
          */
-        private int processingRespOffset;
+        public abstract static class Bench {
+            final String name;
+            /**
+             * 每次操作处理的字节数(0 -> 不输出吞吐量)
+             */
+            final long bytesPerOp;
+
+            protected Bench(String name, long bytesPerOp) {
+                this.name = name;
+                this.bytesPerOp = bytesPerOp;
+            }
 
-        public DefaultXWriter() {
-            respQueue = new ArrayBlockingQueue<XBuffer>(Container.QUEUE_CAPACITY);
-            processingRespOffset = 0;
-        }
+            protected void setUp() throws Exception {
+            }
 
+            /**
+             * @return 任意结果(进入sink)
+             */
+            protected abstract long op() throws Exception;
 
-        /**
-         * NIO 写带来不确定性:
-         * 1. 写了完整一个业务数据包 -> Queue中取下一个业务数据包做为下一个在途响应
-         * 2. 写了部分业务数据包 -> 记录位置...下次对应写IO事件时候Resume
-         *
-         * @param mediator 用于向NIO SocketChannel写数据的过渡缓存
-         * @param desc     维护客户端连接
-         *                 <p>
-         *                 简化设计 -> 响应用的自定义协议下的业务数据包统一用{@code XBuffer}表示
-         *                 对应连接下 -> 一次IO 写事件触发一次该函数
-         *                 为了降低复杂度 -> 但本次函数感知自己写完一个完整的 用于响应的业务数据包时(processingRespOffset == inFlyRespBuffer.length) -> 结束本次函数
-         *                 哪怕在本次IO写事件下 "还允许写更多的数据"
-         */
-        public void write(ByteBuffer mediator, SocketChannel desc) throws IOException {
+            protected void tearDown() throws Exception {
+            }
+        }
 
-            mediator.put(inFlyRespBuffer.content
-                    , processingRespOffset
-                    , inFlyRespBuffer.length - processingRespOffset);
-            mediator.flip();
+        public static void main(String[] args) throws Exception {
+            List<String> filters = new ArrayList<>();
+            long roundMillis = 1000;
+            int rounds = 5;
+            Path dir = Paths.get("xbench-results");
+            Path baseline = null;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--time": roundMillis = Long.parseLong(args[++i]); break;
+                    case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                    case "--dir": dir = Paths.get(args[++i]); break;
+                    case "--baseline": baseline = Paths.get(args[++i]); break;
+                    default: filters.add(args[i]);
+                }
+            }
 
-            int bytesWritten = desc.write(mediator);
-            processingRespOffset += bytesWritten;
+            new XBufferPool().bind();
+            int maxKeepAliveRequests = Container.HTTP_MAX_KEEP_ALIVE_REQUESTS;
+            Container.HTTP_MAX_KEEP_ALIVE_REQUESTS = Integer.MAX_VALUE;
 
-            while (/**上次写操作是否写了数据**/bytesWritten > 0
-                    && /**是否写了一个完整业务数据包**/mediator.hasRemaining()) {
-                bytesWritten = desc.write(mediator);
-                processingRespOffset += bytesWritten;
+            Properties previous = load(baseline != null ? baseline : latestResult(dir));
+            Properties results = new Properties();
+            System.out.printf("%-28s %12s %8s %12s %10s %10s%n", "benchmark", "ns/op", "+-%", "B/op(alloc)", "MB/s", "vs base");
+            try {
+                for (Bench bench : benches()) {
+                    if (!filters.isEmpty() && filters.stream().noneMatch(bench.name::startsWith)) continue;
+                    run(bench, roundMillis, rounds, previous, results);
+                }
+            } finally {
+                Container.HTTP_MAX_KEEP_ALIVE_REQUESTS = maxKeepAliveRequests;
             }
 
-            if (/**写了一个完整业务数据包**/processingRespOffset == inFlyRespBuffer.length) {
-                inFlyRespBuffer = respQueue.poll();
-                processingRespOffset = 0;//重置偏移量
+            Files.createDirectories(dir);
+            Path file = dir.resolve("xbench-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+                    .withZone(ZoneOffset.UTC).format(Instant.now()) + ".properties");
+            try (java.io.Writer writer = Files.newBufferedWriter(file)) {
+                results.store(writer, "XBench time=" + roundMillis + "ms rounds=" + rounds);
             }
-            mediator.clear();
+            System.out.println("results -> " + file);
         }
 
         /**
-         * @param xBuffer 一个完整的响应业务数据包对应的缓存
-         *                {@code DefaultXWriter}维护对应SocketChannel下的所有在途 用于响应的业务数据包
+         * 所有基准
+         * parse.* -> DefaultHttpXParser 每次操作先把报文拷贝到读缓存(模拟一次read) 再解析 & 归还输出
+         * buffer.* -> XBuffer扩容 / 小块缓存
+         * writer.* -> DefaultXWriter通过本地回环连接写出(另一端由后台线程读取丢弃)
          */
-        public void enqueue(XBuffer xBuffer) {
-            if (inFlyRespBuffer == null) {
-                inFlyRespBuffer = xBuffer;
-            } else {
-                respQueue.offer(xBuffer);
+        public static List<Bench> benches() {
+            List<Bench> benches = new ArrayList<>();
+            benches.add(new ParseBench("parse.smallGet", SMALL_GET));
+            benches.add(new ParseBench("parse.largeHeaders", LARGE_HEADERS));
+            benches.add(new ParseBench("parse.pipelined16", PIPELINED));
+            benches.add(new ParseBench("parse.postBody1K", POST_BODY));
+            benches.add(new SplitParseBench("parse.postBody1K.split", POST_BODY));
+
+            benches.add(new GrowBench("buffer.grow256K.pooled", true));
+            benches.add(new GrowBench("buffer.grow256K.unpooled", false));
+            benches.add(new Bench("buffer.cacheSmall", 0) {
+                private final byte[] statusLine = ascii("HTTP/1.1 200 OK\r\n");
+                private final byte[] header = ascii("Content-Type: text/plain\r\n");
+                private final byte[] body = ascii("<html><body>Hello FROM SSNIOServer XD</body></html>");
+
+                @Override
+                protected long op() {
+                    XBuffer xBuffer = new XBuffer();
+                    xBuffer.cache(statusLine);
+                    xBuffer.cache(header);
+                    xBuffer.cacheAscii("Content-Length: ");
+                    xBuffer.cacheDecimal(body.length);
+                    xBuffer.cache(body);
+                    int length = xBuffer.length;
+                    xBuffer.release();
+                    return length;
+                }
+            });
+            benches.add(new Bench("response.encode", 0) {
+                private HttpRequest request;
+                private final byte[] body = ascii("<html><body>Hello FROM SSNIOServer XD</body></html>");
+
+                @Override
+                protected void setUp() throws IOException {
+                    request = parseOne(SMALL_GET);
+                }
+
+                @Override
+                protected long op() {
+                    XBuffer response = HttpResponse.of(request, 200)
+                            .header(HttpResponse.CONTENT_TYPE, HttpResponse.TEXT_HTML)
+                            .body(body);
+                    int length = response.length;
+                    response.release();
+                    return length;
+                }
+            });
+
+            benches.add(new WriterBench("writer.loopback.16x1K", 16, 1024));
+            benches.add(new WriterBench("writer.loopback.1x64K", 1, 64 * 1024));
+            benches.add(new WriterBench("writer.loopback.64x128B", 64, 128));
+            return benches;
+        }
+
+        private static void run(Bench bench, long roundMillis, int rounds, Properties previous, Properties results) throws Exception {
+            bench.setUp();
+            try {
+                long batch = calibrate(bench);
+                measure(bench, batch, roundMillis);
+                measure(bench, batch, roundMillis);
+
+                double[] nsPerOp = new double[rounds];
+                long allocated = 0;
+                long ops = 0;
+                for (int i = 0; i < rounds; i++) {
+                    long allocatedBefore = allocatedBytes();
+                    long[] measured = measure(bench, batch, roundMillis);
+                    allocated += allocatedBytes() - allocatedBefore;
+                    ops += measured[1];
+                    nsPerOp[i] = (double) measured[0] / measured[1];
+                }
+
+                double mean = Arrays.stream(nsPerOp).average().orElse(0);
+                double variance = Arrays.stream(nsPerOp).map(x -> (x - mean) * (x - mean)).sum() / Math.max(1, rounds - 1);
+                double error = mean == 0 ? 0 : 100 * Math.sqrt(variance) / mean;
+                double bytesPerOp = allocatedBytes() < 0 ? -1 : (double) allocated / ops;
+                String throughput = bench.bytesPerOp == 0 ? "-" : String.format("%.1f", bench.bytesPerOp * 1000.0 / mean);
+
+                String vs = "-";
+                String base = previous.getProperty(bench.name + ".nsPerOp");
+                if (base != null) {
+                    vs = String.format("%+.1f%%", 100 * (mean - Double.parseDouble(base)) / Double.parseDouble(base));
+                }
+                System.out.printf("%-28s %12.1f %8.1f %12.1f %10s %10s%n", bench.name, mean, error, bytesPerOp, throughput, vs);
+
+                results.setProperty(bench.name + ".nsPerOp", String.format(Locale.ROOT, "%.2f", mean));
+                results.setProperty(bench.name + ".error", String.format(Locale.ROOT, "%.2f", error));
+                results.setProperty(bench.name + ".allocBytesPerOp", String.format(Locale.ROOT, "%.1f", bytesPerOp));
+            } finally {
+                bench.tearDown();
             }
         }
 
         /**
-         * @return 是否有在途 用于响应的业务数据包
+         * @return 一批调用耗时约1ms的调用次数
          */
-        public boolean isEmpty() {
-            return inFlyRespBuffer == null;
+        private static long calibrate(Bench bench) throws Exception {
+            long batch = 1;
+            while (true) {
+                long start = System.nanoTime();
+                for (long i = 0; i < batch; i++) sink += bench.op();
+                if (System.nanoTime() - start >= 1_000_000 || batch >= 1 << 24) return batch;
+                batch *= 2;
+            }
         }
-    }
 
-    /********************************作为扩展点加入的HTTP相关组件  如果使用自定义协议可删除*******************************************/
-
-    /**
-     * 协议HTTP下请求对应的模型
-     * 提供简单的:
-     * URI参数获取
-     * 报文Header部分字符串获取
-     * 报文Body部分字符串获取
-     * 大道至简 通讯皆为字节流 -> 何必转来转去徒增烦恼
-     **/
-    public static class HttpRequest extends XBuffer {
         /**
-         * 请求头在XBuffer.content中偏移量
+         * @return {耗时ns, 调用次数}
          */
-        public int headersOffset;
+        private static long[] measure(Bench bench, long batch, long roundMillis) throws Exception {
+            long ops = 0;
+            long start = System.nanoTime();
+            long deadline = start + roundMillis * 1_000_000;
+            long now;
+            do {
+                long result = 0;
+                for (long i = 0; i < batch; i++) result += bench.op();
+                sink += result;
+                ops += batch;
+                now = System.nanoTime();
+            } while (now < deadline);
+            return new long[]{now - start, ops};
+        }
+
         /**
-         * 请求实体在XBuffer.content中偏移量
+         * @return 当前线程累计分配的字节数 不支持时返回-1
          */
-        public int bodyOffset;
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) return -1;
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        private static Path latestResult(Path dir) throws IOException {
+            if (!Files.isDirectory(dir)) return null;
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                return files.filter(file -> file.getFileName().toString().startsWith("xbench-"))
+                        .max(Comparator.comparing(file -> file.getFileName().toString()))
+                        .orElse(null);
+            }
+        }
+
+        private static Properties load(Path file) throws IOException {
+            Properties properties = new Properties();
+            if (file != null && Files.isRegularFile(file)) {
+                try (java.io.Reader reader = Files.newBufferedReader(file)) {
+                    properties.load(reader);
+                }
+                System.out.println("baseline <- " + file);
+            }
+            return properties;
+        }
+
         /**
-         * URI参数
+         * 解析一个完整请求(基准的准备工作)
          */
-        public Map<String, String> uriParamsMap;
+        private static HttpRequest parseOne(byte[] message) throws IOException {
+            DefaultHttpXParser parser = new DefaultHttpXParser();
+            XBuffer reader = new XBuffer();
+            reader.cache(message);
+            parser.parse(reader);
+            return (HttpRequest) parser.getOutputs().get(0);
+        }
 
         /**
-         * 获取URI参数
+         * 同一个解析器(持久连接)反复解析同样的报文
          */
-        public Map<String, String> tryGetUriParams() {
-            try {
-                if (uriParamsMap != null) return uriParamsMap;
-                uriParamsMap = new HashMap<>();
-                String requestLine = tryGetStr(0, headersOffset, "utf-8");
-                requestLine = URLDecoder.decode(requestLine);
-
-                String[] pieces = requestLine.split("\\?");
-
-                if (pieces.length != 2) return new HashMap<>();
+        private static class ParseBench extends Bench {
+            private final byte[] message;
+            private DefaultHttpXParser parser;
+            private XBuffer reader;
+
+            private ParseBench(String name, byte[] message) {
+                super(name, message.length);
+                this.message = message;
+            }
 
-                String paramSetStr = pieces[1];
-                String paramReg = "\\w+=\\w+";
-                Pattern pattern = Pattern.compile(paramReg);
-                Matcher matcher = pattern.matcher(paramSetStr);
+            @Override
+            protected void setUp() {
+                parser = new DefaultHttpXParser();
+                reader = new XBuffer();
+            }
 
-                while (matcher.find()) {
-                    String param_pair_str = matcher.group();
-                    String[] key_value_arr = param_pair_str.split("=");
-                    uriParamsMap.put(key_value_arr[0], key_value_arr[1]);
-                }
-                return uriParamsMap;
-            } catch (Exception e) {
-                System.err.println("URI parameters parsing exception:" + e);
-                return new HashMap<>();
+            @Override
+            protected long op() throws IOException {
+                reader.cache(message);
+                parser.parse(reader);
+                return drain(parser);
             }
 
+            @Override
+            protected void tearDown() {
+                reader.release();
+            }
         }
 
         /**
-         * 获取首部段字符串
+         * 报文分两次到达 -> 第n次调用在偏移量 n % (length - 1) + 1 处拆分(覆盖所有拆分位置)
          */
-        public String getHeaderStr() {
-            int headerLength;
-            if (bodyOffset == -1) {
-                headerLength = super.length - headersOffset;
-            } else {
-                headerLength = bodyOffset - headersOffset;
+        private static class SplitParseBench extends Bench {
+            private final byte[] message;
+            private DefaultHttpXParser parser;
+            private XBuffer reader;
+            private int split;
+
+            private SplitParseBench(String name, byte[] message) {
+                super(name, message.length);
+                this.message = message;
             }
 
-            return tryGetStr(headersOffset, headerLength, "UTF-8");
+            @Override
+            protected void setUp() {
+                parser = new DefaultHttpXParser();
+                reader = new XBuffer();
+            }
+
+            @Override
+            protected long op() throws IOException {
+                split = split % (message.length - 1) + 1;
+                reader.cache(message, 0, split);
+                parser.parse(reader);
+                long parsed = drain(parser);
+                reader.cache(message, split, message.length - split);
+                parser.parse(reader);
+                return parsed + drain(parser);
+            }
+
+            @Override
+            protected void tearDown() {
+                reader.release();
+            }
         }
 
         /**
-         * 获取实体字符串
+         * 256B一块 缓存到256KB -> 多次扩容
          */
-        public String getBodyStr() {
-            if (bodyOffset == -1) return "";
+        private static class GrowBench extends Bench {
+            private final byte[] chunk = new byte[256];
+            private final boolean pooled;
 
-            int bodyLength = super.length - bodyOffset;
+            private GrowBench(String name, boolean pooled) {
+                super(name, 256 * 1024);
+                this.pooled = pooled;
+            }
 
-            return tryGetStr(bodyOffset, bodyLength, "UTF-8");
+            @Override
+            protected long op() {
+                XBuffer xBuffer = new XBuffer(pooled ? XBufferPool.current() : null, 0);
+                for (int i = 0; i < 1024; i++) xBuffer.cache(chunk);
+                int length = xBuffer.length;
+                xBuffer.release();
+                return length;
+            }
         }
 
         /**
-         * 获取字符串
+         * 每次操作: 缓存count个size字节的响应 -> 入队 -> 写到全部写完
          */
-        private String tryGetStr(int offset, int length, String charset) {
-            if (length <= 0) return "";
-            byte[] bytes_buffer = new byte[length];
-            System.arraycopy(super.content, offset, bytes_buffer, 0, length);
+        private static class WriterBench extends Bench {
+            private final int count;
+            private final byte[] payload;
+            private DefaultXWriter writer;
+            private ServerSocketChannel server;
+            private SocketChannel client;
+            private SocketChannel peer;
+            private Thread drainer;
+
+            private WriterBench(String name, int count, int size) {
+                super(name, (long) count * size);
+                this.count = count;
+                this.payload = new byte[size];
+            }
 
-            String rst;
-            try {
-                rst = new String(bytes_buffer, charset);
-            } catch (UnsupportedEncodingException e) {
-                rst = "";
+            @Override
+            protected void setUp() throws IOException {
+                server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress("127.0.0.1", 0));
+                client = SocketChannel.open(server.getLocalAddress());
+                peer = server.accept();
+                drainer = new Thread(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                    try {
+                        while (peer.read(buffer) != -1) buffer.clear();
+                    } catch (IOException ignored) {
+                        // closed by tearDown
+                    }
+                }, "XBench-drainer");
+                drainer.setDaemon(true);
+                drainer.start();
+                writer = new SSNIOServer().new DefaultXWriter();
+            }
+
+            @Override
+            protected long op() throws IOException {
+                for (int i = 0; i < count; i++) {
+                    XBuffer response = new XBuffer();
+                    response.cache(payload);
+                    writer.enqueue(response);
+                }
+                long written = 0;
+                while (!writer.isEmpty()) written += writer.write(client);
+                return written;
+            }
+
+            @Override
+            protected void tearDown() throws IOException {
+                writer.releaseAll();
+                client.close();
+                peer.close();
+                server.close();
             }
-            return rst;
         }
-    }
 
+        private static long drain(XParser parser) {
+            List<XBuffer> outputs = parser.getOutputs();
+            long length = 0;
+            for (XBuffer output : outputs) {
+                length += output.length;
+                output.release();
+            }
+            outputs.clear();
+            return length;
+        }
 
-    public static class DefaultHttpXParser implements XParser {
-        private List<XBuffer> requests = new ArrayList<>();
-        private boolean endOfStreamReached =false;
-        @Override
-        public void parse(XBuffer src) throws IOException {
-            // XBuffer  -> contains the bytes read from NIO read
-            HttpRequest request = HttpUtil.tryToParseHttpRequest(src);
-            while (request != null) {
-                requests.add(request);
-                request = HttpUtil.tryToParseHttpRequest(src);
+        private static byte[] largeHeadersRequest() {
+            StringBuilder request = new StringBuilder("GET /api/v1/items?page=2&size=50 HTTP/1.1\r\n");
+            request.append("Host: www.example.com\r\n");
+            request.append("User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n");
+            request.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n");
+            request.append("Accept-Encoding: gzip, deflate, br\r\n");
+            request.append("Accept-Language: en-US,en;q=0.9,zh-CN;q=0.8\r\n");
+            for (int i = 0; i < 24; i++) {
+                request.append("X-Custom-Header-").append(i).append(": value-").append(i).append("-abcdefghijklmnopqrstuvwxyz\r\n");
+            }
+            request.append("Cookie: ");
+            for (int i = 0; i < 40; i++) {
+                request.append("cookie").append(i).append("=0123456789abcdef0123456789abcdef; ");
             }
+            request.append("last=1\r\n\r\n");
+            return ascii(request.toString());
         }
-        @Override
-        public List<XBuffer> getOutputs() {
-            if (requests.size() == 0) return new ArrayList<>();
-            return requests;
+
+        private static byte[] postRequest(int bodyLength) {
+            byte[] head = ascii("POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + bodyLength + "\r\n\r\n");
+            byte[] request = Arrays.copyOf(head, head.length + bodyLength);
+            Arrays.fill(request, head.length, request.length, (byte) 'x');
+            return request;
         }
-    }
 
-    public static class HttpCodeCFactory implements CodeCFactory {
-        @Override
-        public XParser createXReader() {
-            return new DefaultHttpXParser();
+        private static byte[] repeat(byte[] src, int times) {
+            byte[] desc = new byte[src.length * times];
+            for (int i = 0; i < times; i++) {
+                System.arraycopy(src, 0, desc, i * src.length, src.length);
+            }
+            return desc;
+        }
+
+        private static byte[] ascii(String src) {
+            return src.getBytes(StandardCharsets.US_ASCII);
         }
     }
 
     /**
-     * 取第一行 -> 作为请求行
-     * 不断取后面行作为header行,并且判断有没有content-length
-     * 取到连续两次\r\n(header与body之间有两行) 作为body
-     **/
-    public static class HttpUtil {
+     * 本地压测工具 -> 与服务器同样的NIO风格 不依赖第三方库
+     * 运行: java -cp <classes> 'SSNIOServer$XLoadGenerator' [选项]
+     * --connections K  连接数(默认64)            --threads T   客户端线程数(每个线程一个Selector 默认min(K, 2))
+     * --duration 秒    测量时长(默认10)           --warmup 秒   预热时长 不计入结果(默认2)
+     * --rate R         总请求速率 req/s -> 开环; 不指定 -> 闭环(每个连接收到响应后立即发送下一个请求)
+     * --host / --port  目标(默认127.0.0.1:Container.PORT)
+     * --path /a        请求路径 可重复 -> 按顺序轮流(请求组合)
+     * --embedded       在同一个JVM中启动一个返回固定响应的SSNIOServer(配合--reactors N)
+     * <p>
+     * 闭环: 延迟 = 收到完整响应 - 发送时间
+     * 开环: 第i个请求的计划发送时间 = 开始 + i / R 连接空闲时才发送 -> 延迟 = 收到完整响应 - 计划发送时间
+     * 服务器变慢时排队等待的时间也计入延迟(coordinated omission)
+     * <p>
+     * 每个连接同一时间只有一个在途请求 响应需要带Content-Length(分块编码的响应计为错误)
+     * 服务器关闭连接(e.g Connection: close / 达到持久连接请求数上限)后自动重连
+     */
+    public static class XLoadGenerator {
+
+        private static final byte[] HEADERS_END = {'\r', '\n', '\r', '\n'};
+
+        public static void main(String[] args) throws Exception {
+            int connections = 64;
+            int threads = -1;
+            long durationSeconds = 10;
+            long warmupSeconds = 2;
+            double rate = 0;
+            String host = "127.0.0.1";
+            int port = Container.PORT;
+            List<String> paths = new ArrayList<>();
+            boolean embedded = false;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--connections": connections = Integer.parseInt(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "--duration": durationSeconds = Long.parseLong(args[++i]); break;
+                    case "--warmup": warmupSeconds = Long.parseLong(args[++i]); break;
+                    case "--rate": rate = Double.parseDouble(args[++i]); break;
+                    case "--host": host = args[++i]; break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--path": paths.add(args[++i]); break;
+                    case "--embedded": embedded = true; break;
+                    case "--reactors": Container.REACTOR_COUNT = Integer.parseInt(args[++i]); break;
+                    default: throw new IllegalArgumentException("unknown option: " + args[i]);
+                }
+            }
+            if (paths.isEmpty()) paths.add("/");
+            if (threads <= 0) threads = Math.min(connections, 2);
+            threads = Math.min(threads, connections);
+
+            if (embedded) {
+                startEmbeddedServer();
+                Thread.sleep(500);
+            }
+
+            byte[][] requests = new byte[paths.size()][];
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = ("GET " + paths.get(i) + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+            }
+
+            long start = System.nanoTime();
+            long measureStart = start + warmupSeconds * 1_000_000_000L;
+            long end = measureStart + durationSeconds * 1_000_000_000L;
+            InetSocketAddress address = new InetSocketAddress(host, port);
+
+            Worker[] workers = new Worker[threads];
+            Thread[] workerThreads = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                int workerConnections = connections / threads + (i < connections % threads ? 1 : 0);
+                workers[i] = new Worker(address, workerConnections, requests, rate / threads, start, measureStart, end);
+                workerThreads[i] = new Thread(workers[i], "XLoadGenerator-" + i);
+                workerThreads[i].start();
+            }
+
+            XHistogram latencies = new XHistogram();
+            long completed = 0;
+            long errors = 0;
+            long non2xx = 0;
+            long reconnects = 0;
+            long bytesRead = 0;
+            for (int i = 0; i < threads; i++) {
+                workerThreads[i].join();
+                latencies.add(workers[i].latencies);
+                completed += workers[i].completed;
+                errors += workers[i].errors;
+                non2xx += workers[i].non2xx;
+                reconnects += workers[i].reconnects;
+                bytesRead += workers[i].bytesRead;
+            }
+
+            double seconds = durationSeconds;
+            System.out.printf(Locale.ROOT, "mode=%s connections=%d threads=%d duration=%ds warmup=%ds paths=%s%n",
+                    rate > 0 ? "open(" + rate + " req/s)" : "closed", connections, threads, durationSeconds, warmupSeconds, paths);
+            System.out.printf(Locale.ROOT, "requests=%d req/s=%.1f MB/s=%.1f errors=%d non2xx=%d reconnects=%d%n",
+                    completed, completed / seconds, bytesRead / seconds / 1024 / 1024, errors, non2xx, reconnects);
+            System.out.printf(Locale.ROOT, "latency(us) p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f mean=%.1f%n",
+                    latencies.percentile(50) / 1000.0, latencies.percentile(90) / 1000.0, latencies.percentile(99) / 1000.0,
+                    latencies.percentile(99.9) / 1000.0, latencies.getMax() / 1000.0, latencies.getMean() / 1000.0);
+            System.exit(0);
+        }
+
+        private static void startEmbeddedServer() throws IOException {
+            byte[] body = "<html><body>Hello FROM SSNIOServer XD</body></html>".getBytes(StandardCharsets.UTF_8);
+            SSNIOServer server = new SSNIOServer();
+            server.codeCFactory = new HttpCodeCFactory();
+            server.xHandler = request -> HttpResponse.of((HttpRequest) request, 200)
+                    .header(HttpResponse.CONTENT_TYPE, HttpResponse.TEXT_HTML)
+                    .body(body);
+            server.start();
+        }
+
         /**
-         * must contained from a complete http request
+         * 一个客户端线程: 一个Selector管理若干连接
          */
-        private static final byte[] CONTENT_LENGTH = new byte[]{'C', 'o', 'n', 't', 'e', 'n', 't', '-', 'L', 'e', 'n', 'g', 't', 'h'};
+        private static class Worker implements Runnable {
+            private final InetSocketAddress address;
+            private final int connectionCount;
+            private final byte[][] requests;
+            /**
+             * 开环时两个请求计划发送时间的间隔(ns) 0 -> 闭环
+             */
+            private final double intervalNanos;
+            private final long start;
+            private final long measureStart;
+            private final long end;
+
+            private final XHistogram latencies = new XHistogram();
+            private long completed;
+            private long errors;
+            private long non2xx;
+            private long reconnects;
+            private long bytesRead;
+
+            private Selector selector;
+            private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+            private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+            private int nextRequest;
+            /**
+             * 开环: 已发送的请求数(第n个请求的计划发送时间 = start + n * intervalNanos)
+             */
+            private long dispatched;
+
+            private Worker(InetSocketAddress address, int connectionCount, byte[][] requests, double rate,
+                           long start, long measureStart, long end) {
+                this.address = address;
+                this.connectionCount = connectionCount;
+                this.requests = requests;
+                this.intervalNanos = rate > 0 ? 1e9 / rate : 0;
+                this.start = start;
+                this.measureStart = measureStart;
+                this.end = end;
+            }
 
-        public static HttpRequest tryToParseHttpRequest(XBuffer readerBuffer) throws IOException {
-            if (readerBuffer.length == 0) {
-                return null;
+            @Override
+            public void run() {
+                try {
+                    selector = Selector.open();
+                    for (int i = 0; i < connectionCount; i++) {
+                        connect(new Connection());
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        if (intervalNanos > 0) dispatchScheduled(now);
+
+                        // 没有空闲连接时 计划发送时间到了也发不出去 -> 只等待IO事件
+                        long waitNanos = intervalNanos > 0 && !idle.isEmpty() ? nextIntended() - now : 100_000_000L;
+                        waitNanos = Math.min(waitNanos, end - now);
+                        if (waitNanos <= 0) {
+                            selector.selectNow();
+                        } else {
+                            selector.select(Math.max(1, waitNanos / 1_000_000));
+                        }
+
+                        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                        while (it.hasNext()) {
+                            SelectionKey key = it.next();
+                            it.remove();
+                            Connection connection = (Connection) key.attachment();
+                            try {
+                                if (key.isConnectable()) finishConnect(connection);
+                                else if (key.isWritable()) flush(connection);
+                                else if (key.isReadable()) read(connection);
+                            } catch (IOException | CancelledKeyException e) {
+                                errors++;
+                                reconnect(connection);
+                            }
+                        }
+                    }
+                    for (SelectionKey key : selector.keys()) key.channel().close();
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-            readerBuffer.trim(0, readerBuffer.length);
-            byte[] content = readerBuffer.content;
 
-            int request_line_end_index = findNextLine(0, content.length, content);
-            if (request_line_end_index == -1) return null;
-
-            int header_start_index = request_line_end_index + 1;
-            int header_end_index = findNextLine(header_start_index, content.length, content);
-            int content_length = 0;
-
-            while (/**not qualified**/header_end_index != -1 && /**reach body**/header_end_index != header_start_index + 1) {
-                if (matches(content, header_start_index, CONTENT_LENGTH)) {
-                    content_length = findContentLength
-                            (content, header_start_index, header_end_index);
-                }
-                header_start_index = header_end_index + 1;
-                header_end_index = findNextLine(header_start_index, content.length, content);
-            }
-
-            if (/**header not complete**/header_end_index == -1) return null;
-            if (content_length == 0) {
-                //return a request without body
-                HttpRequest request = new HttpRequest();
-                request.xSocketId = readerBuffer.xSocketId;
-                request.content = content;
-                request.headersOffset = request_line_end_index + 1;
-                request.bodyOffset = -1;
-                request.length =content.length;
-                //clear all data of readerBuffer;
-                readerBuffer.reset();
-                return request;
-            }
-            //try to parse body
-            int body_start_index = header_end_index + 1;
-            int body_end_index = body_start_index + content_length;
-
-            if (body_end_index == content.length) {
-                // rare but perfect condition
-                HttpRequest request = new HttpRequest();
-                request.xSocketId = readerBuffer.xSocketId;
-                request.content = content;
-                request.headersOffset = request_line_end_index + 1;
-                request.bodyOffset = body_start_index;
-                request.length = content.length;
-
-                //clear all data of readerBuffer;
-                readerBuffer.reset();
-                return request;
-            } else if (body_end_index < content.length) {
-                //拆包
-                HttpRequest request = new HttpRequest();
-                byte[] request_content = new byte[body_end_index];
-                System.arraycopy(content, 0, request_content, 0, body_end_index);
-
-                request.xSocketId = readerBuffer.xSocketId;
-                request.content = content;
-                request.headersOffset = request_line_end_index + 1;
-                request.bodyOffset = body_start_index;
-                request.length = content.length;
-                // remain the rest part of buffer
-                int offset = body_end_index + 1;
-                readerBuffer.trim(offset, readerBuffer.length - offset);
-                return request;
+            private long nextIntended() {
+                return start + (long) (dispatched * intervalNanos);
             }
-            return null;
-        }
 
-        private static int findContentLength(byte[] src, int startIndex, int endIndex) throws UnsupportedEncodingException {
-            int indexOfColon = findNext(src, startIndex, endIndex, (byte) ':');
-            //skip spaces after colon
-            int index = indexOfColon + 1;
-            while (src[index] == ' ') {
-                index++;
-            }
-            int valueStartIndex = index;
-            int valueEndIndex = index;
-            boolean endOfValueFound = false;
-
-            while (index < endIndex && !endOfValueFound) {
-                switch (src[index]) {
-                    case '0':
-                        ;
-                    case '1':
-                        ;
-                    case '2':
-                        ;
-                    case '3':
-                        ;
-                    case '4':
-                        ;
-                    case '5':
-                        ;
-                    case '6':
-                        ;
-                    case '7':
-                        ;
-                    case '8':
-                        ;
-                    case '9': {
-                        index++;
-                        break;
+            /**
+             * 开环: 计划发送时间已到的请求 交给空闲的连接(没有空闲连接时继续排队 -> 排队时间计入延迟)
+             */
+            private void dispatchScheduled(long now) throws IOException {
+                while (!idle.isEmpty() && nextIntended() <= now) {
+                    Connection connection = idle.poll();
+                    send(connection, nextIntended());
+                    dispatched++;
+                }
+            }
+
+            /**
+             * 连接空闲: 闭环 -> 立即发送下一个请求 开环 -> 等待计划发送时间
+             */
+            private void onIdle(Connection connection) throws IOException {
+                if (intervalNanos > 0) {
+                    idle.add(connection);
+                    dispatchScheduled(System.nanoTime());
+                } else {
+                    send(connection, System.nanoTime());
+                }
+            }
+
+            private void connect(Connection connection) throws IOException {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                connection.channel = channel;
+                connection.reset();
+                if (channel.connect(address)) {
+                    connection.key = channel.register(selector, 0, connection);
+                    onIdle(connection);
+                } else {
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                }
+            }
+
+            private void finishConnect(Connection connection) throws IOException {
+                connection.channel.finishConnect();
+                connection.key.interestOps(0);
+                onIdle(connection);
+            }
+
+            private void reconnect(Connection connection) {
+                idle.remove(connection);
+                try {
+                    connection.channel.close();
+                    reconnects++;
+                    connect(connection);
+                } catch (IOException e) {
+                    errors++;
+                }
+            }
+
+            private void send(Connection connection, long startNanos) throws IOException {
+                connection.startNanos = startNanos;
+                connection.request = ByteBuffer.wrap(requests[nextRequest]);
+                nextRequest = (nextRequest + 1) % requests.length;
+                flush(connection);
+            }
+
+            private void flush(Connection connection) throws IOException {
+                connection.channel.write(connection.request);
+                connection.key.interestOps(connection.request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+
+            private void read(Connection connection) throws IOException {
+                readBuffer.clear();
+                int n = connection.channel.read(readBuffer);
+                if (n == -1) {
+                    // 服务器关闭了连接(在途请求失败)
+                    errors++;
+                    reconnect(connection);
+                    return;
+                }
+                bytesRead += n;
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    if (!connection.consume(readBuffer)) {
+                        errors++;
+                        reconnect(connection);
+                        return;
                     }
-                    default: {
-                        endOfValueFound = true;
-                        valueEndIndex = index;
+                    if (connection.complete) {
+                        onResponse(connection);
+                        return;
                     }
                 }
             }
-            return Integer.parseInt(new String(src, valueStartIndex, valueEndIndex - valueStartIndex, "UTF-8"));
-        }
-        private static int findNext(byte[] src, int startIndex, int endIndex, byte value) {
-            for (int index = startIndex; index < endIndex; index++) {
-                if (src[index] == value) return index;
+
+            private void onResponse(Connection connection) throws IOException {
+                long now = System.nanoTime();
+                if (connection.startNanos >= measureStart && now < end) {
+                    latencies.record(now - connection.startNanos);
+                    completed++;
+                    if (connection.status < 200 || connection.status >= 300) non2xx++;
+                }
+                if (connection.closeAfterResponse) {
+                    reconnect(connection);
+                    return;
+                }
+                connection.reset();
+                connection.key.interestOps(0);
+                onIdle(connection);
             }
-            return -1;
         }
-        private static boolean matches(byte[] src, int offset, byte[] value) {
-            for (int i = offset, n = 0; n < value.length; i++, n++) {
-                if (src[i] != value[n]) return false;
+
+        /**
+         * 一个连接 & 正在接收的响应
+         */
+        private static class Connection {
+            private SocketChannel channel;
+            private SelectionKey key;
+            private ByteBuffer request;
+            private long startNanos;
+
+            /**
+             * 首部(找到空行前累积在head中)
+             */
+            private byte[] head = new byte[1024];
+            private int headLength;
+            private boolean headDone;
+            private long bodyRemaining;
+            private int status;
+            private boolean closeAfterResponse;
+            private boolean complete;
+
+            private void reset() {
+                headLength = 0;
+                headDone = false;
+                bodyRemaining = 0;
+                status = 0;
+                closeAfterResponse = false;
+                complete = false;
             }
-            return true;
-        }
-        private static int findNextLine(int startIndex, int endIndex, byte[] src) {
-            for (int index = startIndex; index < endIndex; index++) {
-                if (src[index] == '\n') {
-                    if (src[index - 1] == '\r') {
-                        return index;
+
+            /**
+             * 消费src中属于当前响应的数据
+             *
+             * @return false -> 响应不合法(没有Content-Length / 首部过大)
+             */
+            private boolean consume(ByteBuffer src) {
+                if (!headDone) {
+                    while (src.hasRemaining()) {
+                        if (headLength == head.length) {
+                            if (head.length >= 64 * 1024) return false;
+                            head = Arrays.copyOf(head, head.length * 2);
+                        }
+                        head[headLength++] = src.get();
+                        if (headLength >= 4 && head[headLength - 1] == '\n'
+                                && HttpUtil.equalsBytes(head, headLength - 4, 4, HEADERS_END)) {
+                            headDone = true;
+                            if (!parseHead()) return false;
+                            break;
+                        }
                     }
                 }
-                ;
+                if (headDone) {
+                    int skip = (int) Math.min(bodyRemaining, src.remaining());
+                    src.position(src.position() + skip);
+                    bodyRemaining -= skip;
+                    complete = bodyRemaining == 0;
+                }
+                return true;
+            }
+
+            private boolean parseHead() {
+                int lineEnd = HttpUtil.findNext(head, 0, headLength, (byte) '\n');
+                if (lineEnd < 12) return false;
+                status = (head[9] - '0') * 100 + (head[10] - '0') * 10 + (head[11] - '0');
+                bodyRemaining = -1;
+
+                int lineStart = lineEnd + 1;
+                while (lineStart < headLength - 2) {
+                    int end = HttpUtil.findNext(head, lineStart, headLength, (byte) '\n');
+                    int contentEnd = HttpUtil.lineContentEnd(head, lineStart, end);
+                    int colon = HttpUtil.findNext(head, lineStart, contentEnd, (byte) ':');
+                    if (colon != -1) {
+                        int valueStart = colon + 1;
+                        while (valueStart < contentEnd && head[valueStart] == ' ') valueStart++;
+                        if (HttpUtil.equalsIgnoreCase(head, lineStart, colon - lineStart, HttpUtil.CONTENT_LENGTH)) {
+                            try {
+                                bodyRemaining = HttpUtil.parseContentLength(head, valueStart, contentEnd);
+                            } catch (IOException e) {
+                                return false;
+                            }
+                        } else if (HttpUtil.equalsIgnoreCase(head, lineStart, colon - lineStart, HttpUtil.CONNECTION)) {
+                            closeAfterResponse = HttpUtil.containsIgnoreCase(head, valueStart, contentEnd, HttpUtil.CLOSE);
+                        }
+                    }
+                    lineStart = end + 1;
+                }
+                // 没有实体的响应
+                if (status == 204 || status == 304) bodyRemaining = 0;
+                return bodyRemaining >= 0;
             }
-            return -1;
         }
     }
 }